@@ -2,6 +2,7 @@
 import sqlite3
 import json
 import sys
+import zlib
 import tkinter as tk
 from tkinter import ttk
 from tktooltip import ToolTip
@@ -13,6 +14,9 @@ class LogGUI:
         self.db_path = db_path
         self.conn = sqlite3.connect(db_path)
         self.conn.row_factory = sqlite3.Row
+        self.json_dictionaries = self.load_json_dictionaries()
+        self.current_session_id = None
+        self.expanded_runs = set()  # Ids of collapsed runs shown as individual messages
         
         # Minecraft color mapping
         self.minecraft_colors = {
@@ -131,7 +135,7 @@ class LogGUI:
     def load_sessions(self):
         """Load sessions from database"""
         cursor = self.conn.execute("""
-            SELECT s.*, COUNT(m.id) as message_count
+            SELECT s.*, SUM(m.repeat_count) as message_count
             FROM sessions s
             LEFT JOIN messages m ON s.id = m.session_id
             GROUP BY s.id
@@ -169,12 +173,39 @@ class LogGUI:
         session = self.sessions_data[session_index]
         self.load_messages(session['id'])
     
+    def load_json_dictionaries(self) -> Dict[int, bytes]:
+        """Load the preset dictionaries used by packed message JSON (schema v3+)"""
+        try:
+            cursor = self.conn.execute("SELECT id, dictionary FROM message_json_dictionaries")
+        except sqlite3.OperationalError:
+            return {}
+        return {row['id']: row['dictionary'] for row in cursor}
+    
+    def read_message_json(self, row) -> Optional[str]:
+        """Return the JSON of a message row, unpacking it if needed (see MessageJsonCodec)"""
+        packed = row['message_json_packed'] if 'message_json_packed' in row.keys() else None
+        if packed is None:
+            return row['message_json']
+        
+        # Format byte, dictionary id (big-endian short), raw deflate data
+        dictionary_id = (packed[1] << 8) | packed[2]
+        if dictionary_id:
+            inflater = zlib.decompressobj(wbits=-15, zdict=self.json_dictionaries[dictionary_id])
+        else:
+            inflater = zlib.decompressobj(wbits=-15)
+        return (inflater.decompress(packed[3:]) + inflater.flush()).decode('utf-8')
+    
     def load_messages(self, session_id: int):
         """Load messages for selected session"""
+        if session_id != self.current_session_id:
+            self.current_session_id = session_id
+            self.expanded_runs = set()
+        
         cursor = self.conn.execute("""
-            SELECT * FROM messages 
-            WHERE session_id = ? 
-            ORDER BY timestamp ASC
+            SELECT m.*, s.name AS sender_name FROM messages m
+            LEFT JOIN senders s ON s.id = m.sender_id
+            WHERE m.session_id = ? 
+            ORDER BY m.seq ASC
         """, (session_id,))
         
         # Clear previous messages
@@ -184,16 +215,49 @@ class LogGUI:
         self.current_messages = []
         
         for row in cursor:
+            message_json = self.read_message_json(row)
+            repeat_count = row['repeat_count'] or 1
+            last_timestamp = row['last_timestamp'] if repeat_count > 1 and row['last_timestamp'] else row['timestamp']
             message_data = {
                 'id': row['id'],
                 'timestamp': datetime.fromtimestamp(row['timestamp'] / 1000),
+                'last_timestamp': datetime.fromtimestamp(last_timestamp / 1000),
+                'repeat_count': repeat_count,
                 'sender_name': row['sender_name'],
                 'message_text': row['message_text'],
-                'message_json': json.loads(row['message_json']) if row['message_json'] else None
+                'message_json': json.loads(message_json) if message_json else None
             }
             
-            self.current_messages.append(message_data)
-            self.create_message_widget(message_data)
+            if repeat_count > 1 and row['id'] in self.expanded_runs:
+                messages = self.expand_run(message_data, row['timestamp'], last_timestamp)
+            else:
+                messages = [message_data]
+            for message in messages:
+                self.current_messages.append(message)
+                self.create_message_widget(message)
+    
+    def expand_run(self, message_data: Dict, first_ms: int, last_ms: int) -> List[Dict]:
+        """The individual messages of a collapsed run, as MessageData.expandRun: only the first
+        and last times were stored, the ones in between are spread evenly"""
+        count = message_data['repeat_count']
+        expanded = []
+        for i in range(count):
+            time_ms = first_ms + (last_ms - first_ms) * i // (count - 1)
+            expanded.append(dict(message_data,
+                                 timestamp=datetime.fromtimestamp(time_ms / 1000),
+                                 last_timestamp=datetime.fromtimestamp(time_ms / 1000),
+                                 repeat_count=1,
+                                 run_index=i + 1,
+                                 run_size=count))
+        return expanded
+    
+    def toggle_run(self, message_id: int):
+        """Expand a collapsed run into its messages, or collapse it back"""
+        if message_id in self.expanded_runs:
+            self.expanded_runs.discard(message_id)
+        else:
+            self.expanded_runs.add(message_id)
+        self.load_messages(self.current_session_id)
     
     def create_message_widget(self, message_data: Dict):
         """Create widget for a single message with simple hover detection"""
@@ -257,6 +321,31 @@ class LogGUI:
             text_label.pack(side=tk.LEFT)
             all_labels.append(text_label)
         
+        # Runs of identical messages are stored as one row, clicking the marker expands or collapses them
+        run_text = None
+        if message_data['repeat_count'] > 1:
+            run_text = (f" \u00d7{message_data['repeat_count']} "
+                        f"({timestamp_str} - {message_data['last_timestamp'].strftime('%H:%M:%S')})")
+            run_tooltip = (f"Repeated {message_data['repeat_count']} times, last at "
+                           f"{message_data['last_timestamp'].strftime('%Y-%m-%d %H:%M:%S')}. Click to expand")
+        elif 'run_index' in message_data:
+            run_text = f" ({message_data['run_index']}/{message_data['run_size']})"
+            run_tooltip = "Time estimated between the first and last of the run. Click to collapse"
+        if run_text:
+            run_label = tk.Label(
+                content_frame,
+                text=run_text,
+                font=("Consolas", 10),
+                bg='black',
+                fg='#FFAA00',  # Gold
+                anchor='w',
+                cursor='hand2'
+            )
+            run_label.pack(side=tk.LEFT)
+            run_label.bind("<Button-1>", lambda event: self.toggle_run(message_data['id']))
+            ToolTip(run_label, msg=run_tooltip, delay=0.0, follow=True)
+            all_labels.append(run_label)
+        
         # Copy button (initially hidden)
         copy_button = tk.Button(
             message_frame,
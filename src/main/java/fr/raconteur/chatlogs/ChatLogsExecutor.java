@@ -0,0 +1,295 @@
+package fr.raconteur.chatlogs;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mod-wide executor for background I/O.
+ * Tasks run at most TaskType.maxConcurrent of a type at once, the others waiting for a permit.
+ * Only the recorder and the config watcher, which mostly park, run on virtual threads. JDBC and
+ * zlib calls are native and pin the carrier of a virtual thread: types doing them get platform
+ * threads, so that recovery, repacking and compression together cannot take every carrier from
+ * the recorder. The SQLite writer also gets a dedicated platform thread, through startPinned.
+ * <p>
+ * Counters are kept per task type and logged when the executor is drained on client exit.
+ */
+public final class ChatLogsExecutor {
+    private static final ChatLogsExecutor INSTANCE = new ChatLogsExecutor();
+
+    public enum TaskType {
+        RECORDER(Integer.MAX_VALUE, false, false),
+        DATABASE_WRITER(1, false, true),
+        RECOVERY(1, false, true),
+        COMPRESSION(1, false, true),
+        MAINTENANCE(1, true, true),
+        CONFIG_WATCH(1, true, false),
+        EXPORT(2, false, true);
+
+        private final int maxConcurrent;
+        private final boolean cancelOnDrain; // Work that can resume on next start is interrupted instead of waited for
+        private final boolean platform; // Blocks in native code (JDBC, zlib), which would pin a virtual thread
+
+        TaskType(int maxConcurrent, boolean cancelOnDrain, boolean platform) {
+            this.maxConcurrent = maxConcurrent;
+            this.cancelOnDrain = cancelOnDrain;
+            this.platform = platform;
+        }
+    }
+
+    private final Map<TaskType, Semaphore> permits = new EnumMap<>(TaskType.class);
+    private final Map<TaskType, TaskMetrics> metrics = new EnumMap<>(TaskType.class);
+    private final Set<Task> active = ConcurrentHashMap.newKeySet();
+    private boolean accepting = true;
+
+    private ChatLogsExecutor() {
+        for (TaskType type : TaskType.values()) {
+            permits.put(type, new Semaphore(type.maxConcurrent, true));
+            metrics.put(type, new TaskMetrics());
+        }
+    }
+
+    public static ChatLogsExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Run a task on a thread named threadName, once a permit of its type is free: a daemon platform
+     * thread for types doing native calls, a virtual thread otherwise.
+     * Failures are logged and counted, not propagated.
+     */
+    public Task submit(TaskType type, String threadName, Runnable body) {
+        Task task = new Task(type, body);
+        register(task);
+        Thread.Builder builder = type.platform ? Thread.ofPlatform().daemon(true) : Thread.ofVirtual();
+        builder.name(threadName).start(task::run);
+        return task;
+    }
+
+    /**
+     * Start a long-running task on its own platform thread, for work that blocks in native code.
+     * The thread is already known when this returns.
+     */
+    public Task startPinned(TaskType type, String threadName, Runnable body) {
+        Task task = new Task(type, body);
+        register(task);
+        task.thread = Thread.ofPlatform().name(threadName).daemon(true).unstarted(task::run);
+        task.thread.start();
+        return task;
+    }
+
+    private synchronized void register(Task task) {
+        if (!accepting) {
+            throw new RejectedExecutionException("Background I/O executor is draining");
+        }
+        active.add(task);
+        metrics.get(task.type).submitted.increment();
+    }
+
+    /**
+     * Stop accepting tasks, interrupt the ones that resume on next start, then wait up to
+     * timeoutMs for the others. Pinned tasks are left to their owner, which stops them.
+     * Returns false if some task was still running at the deadline.
+     */
+    public boolean drain(long timeoutMs) {
+        synchronized (this) {
+            accepting = false;
+        }
+
+        for (Task task : active) {
+            if (task.type.cancelOnDrain) {
+                task.cancel();
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        boolean drained = true;
+        for (Task task : active) {
+            if (task.type == TaskType.DATABASE_WRITER) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            try {
+                if (!task.done.await(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                    ChatLogsMod.LOGGER.warn("Background {} task still running after {} ms, abandoning it", task.type, timeoutMs);
+                    drained = false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return drained;
+    }
+
+    public TaskMetrics getMetrics(TaskType type) {
+        return metrics.get(type);
+    }
+
+    public void logMetrics() {
+        for (TaskType type : TaskType.values()) {
+            TaskMetrics typeMetrics = metrics.get(type);
+            if (typeMetrics.getSubmitted() > 0) {
+                ChatLogsMod.LOGGER.info("Background I/O {}: {}", type, typeMetrics);
+            }
+        }
+    }
+
+    /**
+     * Handle on a submitted task
+     */
+    public final class Task {
+        private final TaskType type;
+        private final Runnable body;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final long submitNanos = System.nanoTime();
+        private volatile Thread thread;
+        private volatile boolean cancelled = false;
+
+        private Task(TaskType type, Runnable body) {
+            this.type = type;
+            this.body = body;
+        }
+
+        private void run() {
+            thread = Thread.currentThread();
+            TaskMetrics typeMetrics = metrics.get(type);
+            Semaphore permit = permits.get(type);
+            typeMetrics.queued.incrementAndGet();
+            boolean acquired = false;
+            try {
+                permit.acquire();
+                acquired = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                typeMetrics.queued.decrementAndGet();
+            }
+
+            long startNanos = System.nanoTime();
+            typeMetrics.recordWait(startNanos - submitNanos);
+            try {
+                if (acquired && !cancelled) {
+                    typeMetrics.running.incrementAndGet();
+                    try {
+                        body.run();
+                        typeMetrics.completed.increment();
+                    } finally {
+                        typeMetrics.running.decrementAndGet();
+                        typeMetrics.runNanosTotal.add(System.nanoTime() - startNanos);
+                    }
+                } else {
+                    typeMetrics.cancelled.increment();
+                }
+            } catch (Throwable t) {
+                typeMetrics.failed.increment();
+                ChatLogsMod.LOGGER.error("Background {} task failed on {}", type, Thread.currentThread().getName(), t);
+            } finally {
+                if (acquired) {
+                    permit.release();
+                }
+                active.remove(this);
+                done.countDown();
+            }
+        }
+
+        /**
+         * Thread running the task, null until it has started
+         */
+        public Thread thread() {
+            return thread;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Interrupt the task, or skip it if it is still waiting for a permit
+         */
+        public void cancel() {
+            cancelled = true;
+            Thread current = thread;
+            if (current != null) {
+                current.interrupt();
+            }
+        }
+
+        /**
+         * Wait up to timeoutMs for the task to finish, returning whether it did
+         */
+        public boolean await(long timeoutMs) throws InterruptedException {
+            return done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        public void await() throws InterruptedException {
+            done.await();
+        }
+    }
+
+    /**
+     * Counters of one task type. Queued tasks are waiting for a permit.
+     */
+    public static class TaskMetrics {
+        private final LongAdder submitted = new LongAdder();
+        private final AtomicLong queued = new AtomicLong();
+        private final AtomicLong running = new AtomicLong();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder cancelled = new LongAdder();
+        private final AtomicLong waitNanosMax = new AtomicLong();
+        private final LongAdder runNanosTotal = new LongAdder();
+
+        private void recordWait(long nanos) {
+            if (nanos > waitNanosMax.get()) {
+                waitNanosMax.accumulateAndGet(nanos, Math::max);
+            }
+        }
+
+        public long getSubmitted() {
+            return submitted.sum();
+        }
+
+        public long getQueued() {
+            return queued.get();
+        }
+
+        public long getRunning() {
+            return running.get();
+        }
+
+        public long getCompleted() {
+            return completed.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public long getCancelled() {
+            return cancelled.sum();
+        }
+
+        public long getMaxWaitNanos() {
+            return waitNanosMax.get();
+        }
+
+        public long getTotalRunNanos() {
+            return runNanosTotal.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("TaskMetrics{submitted=%d, queued=%d, running=%d, completed=%d, failed=%d, cancelled=%d, waitMax=%dms, runTotal=%dms}",
+                                 getSubmitted(), getQueued(), getRunning(), getCompleted(), getFailed(),
+                                 getCancelled(), getMaxWaitNanos() / 1_000_000, getTotalRunNanos() / 1_000_000);
+        }
+    }
+}
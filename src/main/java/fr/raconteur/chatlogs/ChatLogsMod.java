@@ -6,6 +6,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import fr.raconteur.chatlogs.config.ChatLogsConfig;
+import fr.raconteur.chatlogs.config.ChatLogsSettings;
 import fr.raconteur.chatlogs.database.SessionDatabase;
 import fr.raconteur.chatlogs.session.CrashRecovery;
 
@@ -20,6 +21,7 @@ public final class ChatLogsMod implements ModInitializer {
 		// Initialize configuration
 		try {
 			ChatLogsConfig.getInstance();
+			ChatLogsSettings.getInstance();
 			LOGGER.info("Chat logs configuration loaded successfully");
 		} catch (Exception e) {
 			LOGGER.error("Failed to initialize chat logs configuration", e);
@@ -35,11 +37,11 @@ public final class ChatLogsMod implements ModInitializer {
 			throw new RuntimeException("Critical error: Unable to initialize session database", e);
 		}
 		
-		// Perform crash recovery on startup
+		// Perform crash recovery on startup, in the background
 		try {
-			CrashRecovery.performRecovery();
+			CrashRecovery.startRecovery();
 		} catch (Exception e) {
-			LOGGER.error("Failed to perform crash recovery", e);
+			LOGGER.error("Failed to start crash recovery", e);
 		}
 		
 		LOGGER.info("Chat Logs mod initialized successfully");
@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
+import fr.raconteur.chatlogs.ChatLogsExecutor;
 import fr.raconteur.chatlogs.ChatLogsMod;
 import net.minecraft.util.Util;
 
@@ -12,16 +13,28 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
+/**
+ * Sender patterns per session name, stored in chatlogs-config.json.
+ * The file is watched and reloaded when edited. Patterns are compiled off the client thread into
+ * an immutable PatternSnapshot, published with a single volatile write: readers never lock, and
+ * an edit that does not parse or compile leaves the previous snapshot in place.
+ */
 public class ChatLogsConfig {
     private static final String CONFIG_FILE_NAME = "chatlogs-config.json";
+    private static final long RELOAD_DEBOUNCE_MS = 250; // Editors often save in several writes
     
     // Config folder logic similar to CHATLOG_FOLDER
     public static final File CONFIG_FOLDER = Util.make(() -> {
@@ -35,77 +48,42 @@ public class ChatLogsConfig {
     private static final File CONFIG_FILE = new File(CONFIG_FOLDER, CONFIG_FILE_NAME);
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
     
-    private static ChatLogsConfig instance;
-    private Map<String, List<String>> senderRegexPatterns;
-    private Map<String, List<Pattern>> compiledPatterns; // Cache for compiled patterns
+    private static volatile ChatLogsConfig instance;
+    private static final Object INSTANCE_LOCK = new Object();
+    private volatile PatternSnapshot snapshot;
     
     private ChatLogsConfig() {
-        this.senderRegexPatterns = new HashMap<>();
-        this.compiledPatterns = new HashMap<>();
         loadConfig();
+        startWatching();
     }
     
     public static ChatLogsConfig getInstance() {
         if (instance == null) {
-            instance = new ChatLogsConfig();
+            synchronized (INSTANCE_LOCK) {
+                if (instance == null) {
+                    instance = new ChatLogsConfig();
+                }
+            }
         }
         return instance;
     }
     
     /**
-     * Extract sender name from message text using configured regex patterns
+     * Current patterns. A session keeps the snapshot it resolved its matcher from until this returns another one.
      */
-    public String extractSenderName(String sessionName, String messageText) {
-        List<Pattern> patterns = getCompiledPatternsForSession(sessionName);
-        
-        for (Pattern pattern : patterns) {
-            try {
-                Matcher matcher = pattern.matcher(messageText);
-                if (matcher.find()) {
-                    // Look for named group "sender"
-                    try {
-                        String sender = matcher.group("sender");
-                        if (sender != null && !sender.trim().isEmpty()) {
-                            return sender.trim();
-                        }
-                    } catch (IllegalArgumentException e) {
-                        // Named group "sender" not found in pattern
-                        ChatLogsMod.LOGGER.warn("Pattern '{}' matched but has no 'sender' group: {}", 
-                                              pattern.pattern(), e.getMessage());
-                    }
-                }
-            } catch (Exception e) {
-                ChatLogsMod.LOGGER.error("Error applying regex pattern '{}' to message '{}': {}", 
-                                       pattern.pattern(), messageText, e.getMessage());
-            }
-        }
-        
-        return null; // No pattern matched
+    public PatternSnapshot getSnapshot() {
+        return snapshot;
     }
     
     /**
-     * Get compiled patterns for a session, with fallback to "default"
+     * Sender matcher for a session in the current snapshot, with fallback to "default"
      */
-    private List<Pattern> getCompiledPatternsForSession(String sessionName) {
-        // Try exact session name first
-        List<Pattern> patterns = compiledPatterns.get(sessionName);
-        if (patterns != null && !patterns.isEmpty()) {
-            return patterns;
-        }
-        
-        // Fallback to "default"
-        patterns = compiledPatterns.get("default");
-        if (patterns != null && !patterns.isEmpty()) {
-            return patterns;
-        }
-        
-        // Emergency fallback - return empty list
-        ChatLogsMod.LOGGER.warn("No regex patterns found for session '{}' or 'default'", sessionName);
-        return new ArrayList<>();
+    public SenderMatcher getSenderMatcher(String sessionName) {
+        return snapshot.getSenderMatcher(sessionName);
     }
     
     /**
-     * Load configuration from file, create default if needed
+     * Load configuration from file at startup, create default if needed
      */
     private void loadConfig() {
         if (!CONFIG_FILE.exists()) {
@@ -113,9 +91,8 @@ public class ChatLogsConfig {
             return;
         }
         
-        try (FileReader reader = new FileReader(CONFIG_FILE)) {
-            Type type = new TypeToken<Map<String, List<String>>>(){}.getType();
-            Map<String, List<String>> loadedConfig = GSON.fromJson(reader, type);
+        try {
+            Map<String, List<String>> loadedConfig = readConfigFile();
             
             if (loadedConfig == null || !isValidConfig(loadedConfig)) {
                 ChatLogsMod.LOGGER.warn("Invalid config format in {}, recreating with defaults", CONFIG_FILE_NAME);
@@ -123,23 +100,120 @@ public class ChatLogsConfig {
                 return;
             }
             
-            this.senderRegexPatterns = loadedConfig;
-            compilePatterns();
-            
-            ChatLogsMod.LOGGER.info("Loaded chat logs config with {} session pattern groups", 
-                                  senderRegexPatterns.size());
+            this.snapshot = PatternSnapshot.compile(loadedConfig, false);
             
+            ChatLogsMod.LOGGER.info("Loaded chat logs config with {} session pattern groups",
+                                  loadedConfig.size());
+        
         } catch (IOException | JsonSyntaxException e) {
-            ChatLogsMod.LOGGER.error("Failed to load config from {}, recreating with defaults: {}", 
+            ChatLogsMod.LOGGER.error("Failed to load config from {}, recreating with defaults: {}",
                                    CONFIG_FILE_NAME, e.getMessage());
             createDefaultConfig();
         }
     }
     
+    /**
+     * Reload after an edit of the file. Unlike at startup, a broken file is left alone and
+     * a single invalid pattern rejects the whole edit.
+     */
+    private void reloadConfig() {
+        Map<String, List<String>> loadedConfig;
+        try {
+            loadedConfig = readConfigFile();
+        } catch (IOException | JsonSyntaxException e) {
+            ChatLogsMod.LOGGER.warn("Ignoring edit of {}, keeping the current patterns: {}", CONFIG_FILE_NAME, e.getMessage());
+            return;
+        }
+        
+        if (loadedConfig == null || !isValidConfig(loadedConfig)) {
+            ChatLogsMod.LOGGER.warn("Ignoring edit of {}, invalid config format, keeping the current patterns", CONFIG_FILE_NAME);
+            return;
+        }
+        if (loadedConfig.equals(snapshot.rawConfig)) {
+            return; // Touched or rewritten by ourselves
+        }
+        
+        try {
+            snapshot = PatternSnapshot.compile(loadedConfig, true);
+            ChatLogsMod.LOGGER.info("Reloaded chat logs config with {} session pattern groups", loadedConfig.size());
+        } catch (PatternSyntaxException e) {
+            ChatLogsMod.LOGGER.warn("Ignoring edit of {}, invalid regex pattern '{}', keeping the current patterns: {}",
+                                    CONFIG_FILE_NAME, e.getPattern(), e.getDescription());
+        }
+    }
+    
+    private static Map<String, List<String>> readConfigFile() throws IOException {
+        try (FileReader reader = new FileReader(CONFIG_FILE)) {
+            Type type = new TypeToken<Map<String, List<String>>>(){}.getType();
+            return GSON.fromJson(reader, type);
+        }
+    }
+    
+    /**
+     * Watch the config folder in the background and reload when the config file changes.
+     * The folder is registered before returning, so that no edit made from then on is missed.
+     */
+    private void startWatching() {
+        try {
+            WatchService watcher = FileSystems.getDefault().newWatchService();
+            try {
+                CONFIG_FOLDER.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                ChatLogsExecutor.getInstance()
+                    .submit(ChatLogsExecutor.TaskType.CONFIG_WATCH, "ChatLog Config Watcher", () -> watchConfig(watcher));
+            } catch (IOException | RuntimeException e) {
+                watcher.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            ChatLogsMod.LOGGER.warn("Failed to watch {}, edits need a restart: {}", CONFIG_FILE_NAME, e.getMessage());
+        }
+    }
+    
+    private void watchConfig(WatchService watcher) {
+        try (watcher) {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = isConfigEvent(key);
+                if (!key.reset()) {
+                    ChatLogsMod.LOGGER.warn("Config folder is no longer watched, edits of {} need a restart", CONFIG_FILE_NAME);
+                    return;
+                }
+                if (!changed) {
+                    continue;
+                }
+                
+                // Let the editor finish writing, then fold the events it caused into one reload
+                Thread.sleep(RELOAD_DEBOUNCE_MS);
+                WatchKey pending;
+                while ((pending = watcher.poll()) != null) {
+                    pending.pollEvents();
+                    pending.reset();
+                }
+                reloadConfig();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            ChatLogsMod.LOGGER.warn("Failed to close the watcher of {}: {}", CONFIG_FILE_NAME, e.getMessage());
+        }
+    }
+    
+    private static boolean isConfigEvent(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // Lost events are reported as an overflow without a file name
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || event.context() instanceof Path path && path.toString().equals(CONFIG_FILE_NAME)) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+    
     /**
      * Validate that config is a map of string -> list of strings
      */
-    private boolean isValidConfig(Map<String, List<String>> config) {
+    private static boolean isValidConfig(Map<String, List<String>> config) {
         if (config.isEmpty()) {
             return false;
         }
@@ -171,64 +245,104 @@ public class ChatLogsConfig {
         defaultPatterns.add("^(?:\\[[^\\[\\]]*\\])?\\s*<(?<sender>.*)>.*");
         
         defaultConfig.put("default", defaultPatterns);
-        this.senderRegexPatterns = defaultConfig;
         
-        saveConfig();
-        compilePatterns();
+        saveConfig(defaultConfig);
+        this.snapshot = PatternSnapshot.compile(defaultConfig, false);
         
         ChatLogsMod.LOGGER.info("Created default chat logs config at {}", CONFIG_FILE.getPath());
     }
     
     /**
-     * Save current configuration to file
+     * Save a configuration to file
      */
-    private void saveConfig() {
+    private static void saveConfig(Map<String, List<String>> config) {
         try {
             // Ensure parent directory exists
             CONFIG_FILE.getParentFile().mkdirs();
             
             try (FileWriter writer = new FileWriter(CONFIG_FILE)) {
-                GSON.toJson(senderRegexPatterns, writer);
+                GSON.toJson(config, writer);
             }
-            
+        
         } catch (IOException e) {
             ChatLogsMod.LOGGER.error("Failed to save config to {}: {}", CONFIG_FILE_NAME, e.getMessage());
         }
     }
     
     /**
-     * Compile all regex patterns and cache them
+     * Get raw configuration (for debugging/inspection)
+     */
+    public Map<String, List<String>> getRawConfig() {
+        return new HashMap<>(snapshot.rawConfig);
+    }
+    
+    /**
+     * Immutable set of compiled patterns, replaced as a whole on reload
      */
-    private void compilePatterns() {
-        compiledPatterns.clear();
+    public static final class PatternSnapshot {
+        private final Map<String, List<String>> rawConfig;
+        private final Map<String, SenderMatcher> matchers;
         
-        for (Map.Entry<String, List<String>> entry : senderRegexPatterns.entrySet()) {
-            String sessionKey = entry.getKey();
-            List<String> patternStrings = entry.getValue();
-            List<Pattern> compiled = new ArrayList<>();
+        private PatternSnapshot(Map<String, List<String>> rawConfig, Map<String, SenderMatcher> matchers) {
+            this.rawConfig = rawConfig;
+            this.matchers = matchers;
+        }
+        
+        /**
+         * Compile all regex patterns. When strict, an invalid pattern fails the whole snapshot,
+         * otherwise it is logged and left out.
+         */
+        static PatternSnapshot compile(Map<String, List<String>> config, boolean strict) {
+            Map<String, List<String>> rawConfig = new HashMap<>();
+            Map<String, SenderMatcher> matchers = new HashMap<>();
             
-            for (String patternString : patternStrings) {
-                try {
-                    Pattern pattern = Pattern.compile(patternString);
-                    compiled.add(pattern);
-                } catch (PatternSyntaxException e) {
-                    ChatLogsMod.LOGGER.error("Invalid regex pattern for session '{}': '{}' - {}", 
-                                           sessionKey, patternString, e.getMessage());
+            for (Map.Entry<String, List<String>> entry : config.entrySet()) {
+                String sessionKey = entry.getKey();
+                List<String> patternStrings = entry.getValue();
+                List<Pattern> compiled = new ArrayList<>();
+                
+                for (String patternString : patternStrings) {
+                    try {
+                        Pattern pattern = Pattern.compile(patternString);
+                        compiled.add(pattern);
+                    } catch (PatternSyntaxException e) {
+                        if (strict) {
+                            throw e;
+                        }
+                        ChatLogsMod.LOGGER.error("Invalid regex pattern for session '{}': '{}' - {}",
+                                               sessionKey, patternString, e.getMessage());
+                    }
+                }
+                
+                rawConfig.put(sessionKey, List.copyOf(patternStrings));
+                if (!compiled.isEmpty()) {
+                    matchers.put(sessionKey, SenderMatcher.of(sessionKey, compiled));
+                    ChatLogsMod.LOGGER.debug("Compiled {} regex patterns for session '{}'",
+                                           compiled.size(), sessionKey);
                 }
             }
+            return new PatternSnapshot(Map.copyOf(rawConfig), Map.copyOf(matchers));
+        }
+        
+        /**
+         * Sender matcher for a session, with fallback to "default"
+         */
+        public SenderMatcher getSenderMatcher(String sessionName) {
+            // Try exact session name first
+            SenderMatcher patterns = matchers.get(sessionName);
+            if (patterns != null && !patterns.isEmpty()) {
+                return patterns;
+            }
             
-            if (!compiled.isEmpty()) {
-                compiledPatterns.put(sessionKey, compiled);
-                ChatLogsMod.LOGGER.debug("Compiled {} regex patterns for session '{}'", 
-                                       compiled.size(), sessionKey);
+            // Fallback to "default"
+            patterns = matchers.get("default");
+            if (patterns != null && !patterns.isEmpty()) {
+                return patterns;
             }
+            
+            // Emergency fallback - match nothing
+            ChatLogsMod.LOGGER.warn("No regex patterns found for session '{}' or 'default', senders will not be recorded", sessionName);
+            return SenderMatcher.empty();
         }
     }
-    
-    /**
-     * Get raw configuration (for debugging/inspection)
-     */
-    public Map<String, List<String>> getRawConfig() {
-        return new HashMap<>(senderRegexPatterns);
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,194 @@
+package fr.raconteur.chatlogs.config;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import fr.raconteur.chatlogs.ChatLogsMod;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Tuning options for the recorder and the database, stored in chatlogs-settings.json.
+ * Missing fields keep their defaults, and the file is rewritten after loading so that
+ * options added by newer versions show up in it.
+ */
+public class ChatLogsSettings {
+    private static final String SETTINGS_FILE_NAME = "chatlogs-settings.json";
+    private static final File SETTINGS_FILE = new File(ChatLogsConfig.CONFIG_FOLDER, SETTINGS_FILE_NAME);
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private static ChatLogsSettings instance;
+
+    public Database database = new Database();
+    public WriteBehind writeBehind = new WriteBehind();
+    public Recorder recorder = new Recorder();
+
+    public static ChatLogsSettings getInstance() {
+        if (instance == null) {
+            instance = load();
+        }
+        return instance;
+    }
+
+    /**
+     * Load settings from file, falling back to defaults on a missing or broken file
+     */
+    private static ChatLogsSettings load() {
+        ChatLogsSettings settings = null;
+
+        if (SETTINGS_FILE.exists()) {
+            try (FileReader reader = new FileReader(SETTINGS_FILE)) {
+                settings = GSON.fromJson(reader, ChatLogsSettings.class);
+            } catch (IOException | JsonParseException e) {
+                ChatLogsMod.LOGGER.error("Failed to load settings from {}, using defaults: {}",
+                                       SETTINGS_FILE_NAME, e.getMessage());
+            }
+        }
+
+        if (settings == null) {
+            settings = new ChatLogsSettings();
+        }
+        settings.sanitize();
+        settings.save();
+
+        ChatLogsMod.LOGGER.info("Loaded chat logs settings from {}", SETTINGS_FILE.getPath());
+        return settings;
+    }
+
+    /**
+     * Replace missing sections and out-of-range values with defaults
+     */
+    private void sanitize() {
+        if (database == null) {
+            database = new Database();
+        }
+        if (database.profile == null || database.profile.isBlank()) {
+            database.profile = Database.DEFAULT_PROFILE;
+        }
+        if (database.readPoolSize < 1) {
+            database.readPoolSize = Database.DEFAULT_READ_POOL_SIZE;
+        }
+        if (writeBehind == null) {
+            writeBehind = new WriteBehind();
+        }
+        if (writeBehind.maxBatchSize < 1) {
+            writeBehind.maxBatchSize = WriteBehind.DEFAULT_MAX_BATCH_SIZE;
+        }
+        if (writeBehind.maxLatencyMs < 0) {
+            writeBehind.maxLatencyMs = WriteBehind.DEFAULT_MAX_LATENCY_MS;
+        }
+        if (writeBehind.countCheckpointIntervalMs < 0) {
+            writeBehind.countCheckpointIntervalMs = WriteBehind.DEFAULT_COUNT_CHECKPOINT_INTERVAL_MS;
+        }
+        if (writeBehind.queueCapacity < 1) {
+            writeBehind.queueCapacity = WriteBehind.DEFAULT_QUEUE_CAPACITY;
+        }
+        if (writeBehind.overflowPolicy == null || writeBehind.overflowPolicy.isBlank()) {
+            writeBehind.overflowPolicy = WriteBehind.DEFAULT_OVERFLOW_POLICY;
+        }
+        if (writeBehind.blockTimeoutMs < 0) {
+            writeBehind.blockTimeoutMs = WriteBehind.DEFAULT_BLOCK_TIMEOUT_MS;
+        }
+        if (recorder == null) {
+            recorder = new Recorder();
+        }
+        if (recorder.captureBufferSize < Recorder.MIN_CAPTURE_BUFFER_SIZE) {
+            recorder.captureBufferSize = Recorder.DEFAULT_CAPTURE_BUFFER_SIZE;
+        }
+        if (recorder.durability == null || recorder.durability.isBlank()) {
+            recorder.durability = Recorder.DEFAULT_DURABILITY;
+        }
+        if (recorder.forceIntervalMs < 0) {
+            recorder.forceIntervalMs = Recorder.DEFAULT_FORCE_INTERVAL_MS;
+        }
+        if (recorder.segmentMaxSizeMb < 0) {
+            recorder.segmentMaxSizeMb = Recorder.DEFAULT_SEGMENT_MAX_SIZE_MB;
+        }
+        if (recorder.segmentMaxAgeHours < 0) {
+            recorder.segmentMaxAgeHours = Recorder.DEFAULT_SEGMENT_MAX_AGE_HOURS;
+        }
+    }
+
+    private void save() {
+        try {
+            SETTINGS_FILE.getParentFile().mkdirs();
+
+            try (FileWriter writer = new FileWriter(SETTINGS_FILE)) {
+                GSON.toJson(this, writer);
+            }
+
+        } catch (IOException e) {
+            ChatLogsMod.LOGGER.error("Failed to save settings to {}: {}", SETTINGS_FILE_NAME, e.getMessage());
+        }
+    }
+
+    /**
+     * SQLite connection tuning
+     */
+    public static class Database {
+        static final String DEFAULT_PROFILE = "BALANCED";
+        static final int DEFAULT_READ_POOL_SIZE = 2;
+
+        /** PRAGMA profile applied on connect: SAFE, BALANCED or FAST */
+        public String profile = DEFAULT_PROFILE;
+        /** Number of read-only connections used by queries, next to the single writer connection */
+        public int readPoolSize = DEFAULT_READ_POOL_SIZE;
+        /** Check on startup that every query is answered from indexes, always on in development */
+        public boolean verifyQueryPlans = false;
+        /** Store consecutive identical messages (spam, repeated broadcasts) as one row with a repeat count */
+        public boolean collapseRepeats = false;
+    }
+
+    /**
+     * Group commit of chat messages into SQLite
+     */
+    public static class WriteBehind {
+        static final int DEFAULT_MAX_BATCH_SIZE = 256;
+        static final long DEFAULT_MAX_LATENCY_MS = 50;
+        static final long DEFAULT_COUNT_CHECKPOINT_INTERVAL_MS = 30_000;
+        static final int DEFAULT_QUEUE_CAPACITY = 16_384;
+        static final String DEFAULT_OVERFLOW_POLICY = "SPILL";
+        static final long DEFAULT_BLOCK_TIMEOUT_MS = 100;
+
+        /** Maximum number of messages committed in one transaction */
+        public int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        /** Maximum time a message waits for its batch to fill before being committed */
+        public long maxLatencyMs = DEFAULT_MAX_LATENCY_MS;
+        /** How often session message counts are written while recording, the final count is written on session end */
+        public long countCheckpointIntervalMs = DEFAULT_COUNT_CHECKPOINT_INTERVAL_MS;
+        /** Maximum number of messages waiting to be committed */
+        public int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        /** What to do when the queue is full: BLOCK, DROP_OLDEST or SPILL (to sessions.db.spill, replayed later) */
+        public String overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+        /** How long the BLOCK policy waits for room before dropping the message */
+        public long blockTimeoutMs = DEFAULT_BLOCK_TIMEOUT_MS;
+    }
+
+    /**
+     * Capture of chat messages on the client thread
+     */
+    public static class Recorder {
+        static final int DEFAULT_CAPTURE_BUFFER_SIZE = 8192;
+        static final int MIN_CAPTURE_BUFFER_SIZE = 64;
+        static final String DEFAULT_DURABILITY = "INTERVAL";
+        static final long DEFAULT_FORCE_INTERVAL_MS = 1000;
+        static final long DEFAULT_SEGMENT_MAX_SIZE_MB = 64;
+        static final long DEFAULT_SEGMENT_MAX_AGE_HOURS = 24;
+
+        /** Messages held between the chat hook and the writer thread, rounded up to a power of two */
+        public int captureBufferSize = DEFAULT_CAPTURE_BUFFER_SIZE;
+        /** When the .txt log is synced to disk: NONE, INTERVAL (every forceIntervalMs) or BATCH (after every write) */
+        public String durability = DEFAULT_DURABILITY;
+        /** Sync interval of the INTERVAL durability policy */
+        public long forceIntervalMs = DEFAULT_FORCE_INTERVAL_MS;
+        /** The .txt log continues in a new segment file past this size, 0 for no limit */
+        public long segmentMaxSizeMb = DEFAULT_SEGMENT_MAX_SIZE_MB;
+        /** The .txt log continues in a new segment file once the current one is this old, 0 for no limit */
+        public long segmentMaxAgeHours = DEFAULT_SEGMENT_MAX_AGE_HOURS;
+        /** Gzip segments in the background once they are closed, the last one stays plain text */
+        public boolean compressSegments = true;
+    }
+}
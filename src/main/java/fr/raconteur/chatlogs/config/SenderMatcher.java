@@ -0,0 +1,427 @@
+package fr.raconteur.chatlogs.config;
+
+import fr.raconteur.chatlogs.ChatLogsMod;
+import fr.raconteur.chatlogs.database.MessageFields;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The sender patterns of one session key compiled into a single matcher.
+ * <ul>
+ * <li>Each pattern that has a literal character every match must contain (the '&lt;' of the default
+ * pattern) is skipped without running the regex on lines that lack it.</li>
+ * <li>When every pattern is anchored at the start of the line, they are merged into one alternation,
+ * tried in the configured order, so that a line is scanned once instead of once per pattern.</li>
+ * <li>Patterns anchored with ^ are only tried at the start of the line, where find would fail
+ * again at every following position.</li>
+ * <li>Matchers are reused per thread instead of being allocated per message.</li>
+ * </ul>
+ * The result is the same as trying the patterns in order: the first one that matches with a
+ * non-blank sender group wins. Besides the sender, patterns may capture channel, rank, target
+ * and kind groups, returned as MessageFields.
+ */
+public final class SenderMatcher {
+    private static final String SENDER_GROUP = "sender";
+    // Named groups read from a match, the sender first, then the MessageFields in order
+    private static final String[] GROUPS = {SENDER_GROUP, "channel", "rank", "target", "kind"};
+    private static final char NO_REQUIRED_CHAR = 0;
+    private static final SenderMatcher EMPTY = new SenderMatcher(List.of());
+
+    private final Pattern[] patterns;
+    private final char[] requiredChars; // NO_REQUIRED_CHAR when a pattern has none
+    private final boolean[] anchored; // Matched with lookingAt, find would retry ^ at every position
+    private final Pattern merged; // Null unless every pattern is anchored
+    private final int[] alternativeGroups; // Group of the merged pattern wrapping each pattern
+    private final int[][] groups; // Per pattern, number of each of GROUPS, -1 if it has none
+    private final int[][] mergedGroups; // The same numbers in the merged pattern
+    private final boolean capturesFields; // Some pattern has a group besides the sender
+    private final ThreadLocal<Matcher[]> matchers;
+
+    private SenderMatcher(List<Pattern> patterns) {
+        this.patterns = patterns.toArray(new Pattern[0]);
+        this.requiredChars = new char[this.patterns.length];
+        this.anchored = new boolean[this.patterns.length];
+        this.groups = new int[this.patterns.length][];
+
+        boolean allAnchored = !patterns.isEmpty();
+        boolean anyFields = false;
+        for (int i = 0; i < this.patterns.length; i++) {
+            Map<String, Integer> names = this.patterns[i].namedGroups();
+            groups[i] = new int[GROUPS.length];
+            for (int g = 0; g < GROUPS.length; g++) {
+                groups[i][g] = names.getOrDefault(GROUPS[g], -1);
+                anyFields |= g > 0 && groups[i][g] >= 0;
+            }
+            PatternShape shape = PatternShape.of(this.patterns[i]);
+            requiredChars[i] = shape.requiredChar;
+            anchored[i] = shape.anchored;
+            allAnchored &= shape.anchored;
+        }
+
+        Pattern mergedPattern = null;
+        if (allAnchored && this.patterns.length > 1) {
+            this.alternativeGroups = new int[this.patterns.length];
+            this.mergedGroups = new int[this.patterns.length][GROUPS.length];
+            try {
+                mergedPattern = merge(this.patterns, groups, alternativeGroups, mergedGroups);
+            } catch (RuntimeException e) {
+                ChatLogsMod.LOGGER.warn("Could not merge sender patterns, trying them one by one: {}", e.getMessage());
+            }
+        } else {
+            this.alternativeGroups = null;
+            this.mergedGroups = null;
+        }
+        this.merged = mergedPattern;
+        this.capturesFields = anyFields;
+
+        int matcherCount = this.patterns.length + 1;
+        this.matchers = ThreadLocal.withInitial(() -> new Matcher[matcherCount]);
+    }
+
+    /**
+     * Build the matcher of the given patterns in order, leaving out those without a sender group
+     */
+    public static SenderMatcher of(String sessionKey, List<Pattern> patterns) {
+        List<Pattern> usable = new ArrayList<>(patterns.size());
+        for (Pattern pattern : patterns) {
+            if (pattern.namedGroups().containsKey(SENDER_GROUP)) {
+                usable.add(pattern);
+            } else {
+                ChatLogsMod.LOGGER.warn("Pattern '{}' for session '{}' has no 'sender' group, ignoring it",
+                                        pattern.pattern(), sessionKey);
+            }
+        }
+        return usable.isEmpty() ? EMPTY : new SenderMatcher(usable);
+    }
+
+    public static SenderMatcher empty() {
+        return EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return patterns.length == 0;
+    }
+
+    /**
+     * Whether a match may capture MessageFields, not only the sender
+     */
+    public boolean capturesFields() {
+        return capturesFields;
+    }
+
+    /**
+     * Sender of the message according to the first pattern matching it, or null
+     */
+    public String extract(CharSequence messageText) {
+        Match match = match(messageText);
+        return match != null ? match.sender() : null;
+    }
+
+    /**
+     * Sender and structured fields captured by the first pattern matching the message, or null
+     */
+    public Match match(CharSequence messageText) {
+        if (patterns.length == 0) {
+            return null;
+        }
+
+        Matcher[] threadMatchers = matchers.get();
+        int next = 0;
+        if (merged != null && mayMatchAny(messageText)) {
+            Matcher matcher = reset(threadMatchers, patterns.length, merged, messageText);
+            if (!matcher.lookingAt()) {
+                return null;
+            }
+            int matched = 0;
+            while (matcher.start(alternativeGroups[matched]) < 0) {
+                matched++;
+            }
+            String sender = trimmedOrNull(matcher.group(mergedGroups[matched][0]));
+            if (sender != null) {
+                return new Match(sender, fields(matcher, mergedGroups[matched]));
+            }
+            // Blank sender, the following patterns get their chance as if tried one by one
+            next = matched + 1;
+        } else if (merged != null) {
+            return null;
+        }
+
+        for (int i = next; i < patterns.length; i++) {
+            if (requiredChars[i] != NO_REQUIRED_CHAR && indexOf(messageText, requiredChars[i]) < 0) {
+                continue;
+            }
+            Matcher matcher = reset(threadMatchers, i, patterns[i], messageText);
+            if (anchored[i] ? matcher.lookingAt() : matcher.find()) {
+                String sender = trimmedOrNull(matcher.group(groups[i][0]));
+                if (sender != null) {
+                    return new Match(sender, fields(matcher, groups[i]));
+                }
+            }
+        }
+        return null;
+    }
+
+    private static MessageFields fields(Matcher matcher, int[] numbers) {
+        return MessageFields.of(group(matcher, numbers[1]), group(matcher, numbers[2]),
+                                group(matcher, numbers[3]), group(matcher, numbers[4]));
+    }
+
+    private static String group(Matcher matcher, int number) {
+        return number < 0 ? null : matcher.group(number);
+    }
+
+    private boolean mayMatchAny(CharSequence text) {
+        for (char required : requiredChars) {
+            if (required == NO_REQUIRED_CHAR || indexOf(text, required) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Matcher reset(Matcher[] threadMatchers, int index, Pattern pattern, CharSequence text) {
+        Matcher matcher = threadMatchers[index];
+        if (matcher == null) {
+            matcher = pattern.matcher(text);
+            threadMatchers[index] = matcher;
+        } else {
+            matcher.reset(text);
+        }
+        return matcher;
+    }
+
+    private static int indexOf(CharSequence text, char c) {
+        if (text instanceof String string) {
+            return string.indexOf(c);
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String trimmedOrNull(String group) {
+        if (group == null) {
+            return null;
+        }
+        String trimmed = group.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    /**
+     * One alternation of all patterns, each wrapped in a capturing group. Named groups are
+     * suffixed with the pattern index since names must be unique in a pattern.
+     */
+    private static Pattern merge(Pattern[] patterns, int[][] groups, int[] alternativeGroups, int[][] mergedGroups) {
+        StringBuilder regex = new StringBuilder();
+        int groupCount = 0;
+        for (int i = 0; i < patterns.length; i++) {
+            if (i > 0) {
+                regex.append('|');
+            }
+            regex.append('(').append(renameGroups(patterns[i].pattern(), i)).append(')');
+            alternativeGroups[i] = ++groupCount;
+            for (int g = 0; g < GROUPS.length; g++) {
+                mergedGroups[i][g] = groups[i][g] < 0 ? -1 : groupCount + groups[i][g];
+            }
+            groupCount += patterns[i].matcher("").groupCount();
+        }
+
+        Pattern merged = Pattern.compile(regex.toString());
+        // Renaming kept the group numbering, check it against the merged pattern
+        Map<String, Integer> names = merged.namedGroups();
+        for (int i = 0; i < patterns.length; i++) {
+            for (int g = 0; g < GROUPS.length; g++) {
+                Integer number = names.get(GROUPS[g] + "x" + i);
+                if (mergedGroups[i][g] >= 0 && (number == null || number != mergedGroups[i][g])) {
+                    throw new IllegalStateException("Merged sender pattern has unexpected groups: " + regex);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Rename (?&lt;name&gt; groups and \k&lt;name&gt; references to namexI
+     */
+    private static String renameGroups(String regex, int index) {
+        StringBuilder renamed = new StringBuilder(regex.length() + 16);
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                if (regex.charAt(i + 1) == 'k' && i + 2 < regex.length() && regex.charAt(i + 2) == '<') {
+                    int end = regex.indexOf('>', i + 3);
+                    renamed.append(regex, i, end).append('x').append(index).append('>');
+                    i = end + 1;
+                } else if (regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    end = end < 0 ? regex.length() : end + 2;
+                    renamed.append(regex, i, end);
+                    i = end;
+                } else {
+                    renamed.append(regex, i, i + 2);
+                    i += 2;
+                }
+            } else if (c == '[') {
+                int end = PatternShape.skipClass(regex, i);
+                renamed.append(regex, i, end);
+                i = end;
+            } else if (c == '(' && regex.startsWith("?<", i + 1) && i + 3 < regex.length()
+                       && Character.isLetter(regex.charAt(i + 3))) {
+                int end = regex.indexOf('>', i + 3);
+                renamed.append(regex, i, end).append('x').append(index).append('>');
+                i = end + 1;
+            } else {
+                renamed.append(c);
+                i++;
+            }
+        }
+        return renamed.toString();
+    }
+
+    /**
+     * Result of a match: the trimmed sender, and the fields captured by the same pattern
+     */
+    public record Match(String sender, MessageFields fields) {
+    }
+
+    /**
+     * What a quick scan of a pattern tells: whether it only matches at the start of the input,
+     * and a literal character every match contains. Unsure cases answer false and no character.
+     */
+    private record PatternShape(boolean anchored, char requiredChar) {
+        private static final String META = "\\^$.|?*+()[]{}";
+
+        static PatternShape of(Pattern pattern) {
+            String regex = pattern.pattern();
+            // Flags change what ^ and literals match, and \Q quoting is not worth parsing
+            if (pattern.flags() != 0 || regex.contains("(?") && hasInlineFlags(regex) || regex.contains("\\Q")) {
+                return new PatternShape(false, NO_REQUIRED_CHAR);
+            }
+
+            char required = NO_REQUIRED_CHAR;
+            int depth = 0;
+            int i = 0;
+            while (i < regex.length()) {
+                char c = regex.charAt(i);
+                char literal = NO_REQUIRED_CHAR;
+                int next = i + 1;
+                if (c == '\\') {
+                    if (i + 1 >= regex.length()) {
+                        break;
+                    }
+                    char escaped = regex.charAt(i + 1);
+                    if (escaped >= '1' && escaped <= '9') {
+                        // Numbered back-references would point to other groups once merged
+                        return new PatternShape(false, required);
+                    }
+                    if (!Character.isLetterOrDigit(escaped)) {
+                        literal = escaped;
+                    }
+                    next = skipEscape(regex, i);
+                } else if (c == '[') {
+                    next = skipClass(regex, i);
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (c == '|' && depth == 0) {
+                    // Top-level alternation, neither the anchor nor a literal is required
+                    return new PatternShape(false, NO_REQUIRED_CHAR);
+                } else if (META.indexOf(c) < 0) {
+                    literal = c;
+                }
+
+                boolean optional = next < regex.length() && "?*{".indexOf(regex.charAt(next)) >= 0;
+                if (depth == 0 && literal != NO_REQUIRED_CHAR && !optional
+                        && (required == NO_REQUIRED_CHAR || isBetterFilter(literal, required))) {
+                    required = literal;
+                }
+                i = next;
+            }
+            return new PatternShape(regex.startsWith("^"), required);
+        }
+
+        /**
+         * Punctuation is rarer in chat than letters and spaces
+         */
+        private static boolean isBetterFilter(char candidate, char current) {
+            return !Character.isLetterOrDigit(candidate) && !Character.isWhitespace(candidate)
+                   && (Character.isLetterOrDigit(current) || Character.isWhitespace(current));
+        }
+
+        private static boolean hasInlineFlags(String regex) {
+            int i = regex.indexOf("(?");
+            while (i >= 0) {
+                if (i + 2 < regex.length() && (Character.isLetter(regex.charAt(i + 2)) || regex.charAt(i + 2) == '-')) {
+                    return true;
+                }
+                i = regex.indexOf("(?", i + 2);
+            }
+            return false;
+        }
+
+        /**
+         * Index just after the escape sequence starting at start, for those longer than two characters
+         * (\x41, \u0041, \p{L}, \k&lt;name&gt;, \12...) so that their tail is not read as literals
+         */
+        static int skipEscape(String regex, int start) {
+            int i = start + 2;
+            char kind = regex.charAt(start + 1);
+            if (i < regex.length() && regex.charAt(i) == '{' && "xpPN".indexOf(kind) >= 0) {
+                int end = regex.indexOf('}', i);
+                return end < 0 ? regex.length() : end + 1;
+            }
+            if (kind == 'k' && i < regex.length() && regex.charAt(i) == '<') {
+                int end = regex.indexOf('>', i);
+                return end < 0 ? regex.length() : end + 1;
+            }
+            int length = switch (kind) {
+                case 'x' -> 2;
+                case 'u' -> 4;
+                case 'c', 'p', 'P' -> 1;
+                default -> 0;
+            };
+            if (kind >= '0' && kind <= '9') {
+                length = 0;
+                while (i + length < regex.length() && Character.isDigit(regex.charAt(i + length))) {
+                    length++;
+                }
+            }
+            return Math.min(i + length, regex.length());
+        }
+
+        /**
+         * Index just after the character class opening at start
+         */
+        static int skipClass(String regex, int start) {
+            int i = start + 1;
+            if (i < regex.length() && regex.charAt(i) == '^') {
+                i++;
+            }
+            if (i < regex.length() && regex.charAt(i) == ']') {
+                i++; // A leading ] is literal
+            }
+            int depth = 1;
+            while (i < regex.length() && depth > 0) {
+                char c = regex.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == '[') {
+                    depth++;
+                } else if (c == ']') {
+                    depth--;
+                }
+                i++;
+            }
+            return i;
+        }
+    }
+}
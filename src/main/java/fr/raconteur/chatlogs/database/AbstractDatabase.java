@@ -24,20 +24,33 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Scanner;
+import java.util.regex.Pattern;
 
 public abstract class AbstractDatabase {
+    private static final int BUSY_TIMEOUT_MS = 5000;
+    private static final Pattern TRIGGER_START = Pattern.compile("CREATE\\s+(?:TEMP(?:ORARY)?\\s+)?TRIGGER\\b", Pattern.CASE_INSENSITIVE);
+    
     private final String dbFileName;
     private final Path dbPath;
     private final Path backupDir;
     private final String versioningResourcePath;
+    private final SqliteProfile profile;
+    private final int readPoolSize;
     private Connection connection;
+    private ReadConnectionPool readPool;
     
     // Inter-process locking
     private RandomAccessFile lockRaf;
     private FileLock processLock;
 
     public AbstractDatabase(String dbFileName) throws SQLException {
+        this(dbFileName, SqliteProfile.BALANCED, 2);
+    }
+
+    public AbstractDatabase(String dbFileName, SqliteProfile profile, int readPoolSize) throws SQLException {
         this.dbFileName = dbFileName;
+        this.profile = profile;
+        this.readPoolSize = readPoolSize;
         
         // Use the same folder as chatlogs
         this.dbPath = SimpleSessionRecorder.CHATLOG_FOLDER.toPath().resolve(dbFileName);
@@ -64,9 +77,16 @@ public abstract class AbstractDatabase {
             // Create connection
             String url = "jdbc:sqlite:" + dbPath.toString();
             connection = DriverManager.getConnection(url);
+            
+            // PRAGMAs have to be applied before the first transaction is opened
+            profile.apply(connection, isNewDatabase);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+            }
             connection.setAutoCommit(false);
             
             ChatLogsMod.LOGGER.info("Connected to database: {}", dbPath);
+            reportProfile();
             
             // Initialize version tracking table
             initializeVersionTable();
@@ -74,12 +94,35 @@ public abstract class AbstractDatabase {
             // Apply migrations
             applyMigrations(isNewDatabase);
             
+            // Read-only connections can only be opened once the schema exists
+            readPool = new ReadConnectionPool(url, readPoolSize, profile, BUSY_TIMEOUT_MS);
+            ChatLogsMod.LOGGER.info("Opened {} read connections for database: {}", readPoolSize, dbFileName);
+            
         } catch (IOException e) {
             releaseProcessLock();
             throw new SQLException("Failed to initialize database directories", e);
         }
     }
 
+    /**
+     * Log the PRAGMA values actually in effect, SQLite silently ignores some of them
+     * (e.g. WAL on a read-only medium, page_size on an existing database)
+     */
+    private void reportProfile() throws SQLException {
+        ChatLogsMod.LOGGER.info("SQLite profile {} for {}: journal_mode={}, synchronous={}, mmap_size={}, cache_size={}, temp_store={}, page_size={}",
+                              profile, dbFileName,
+                              readPragma("journal_mode"), readPragma("synchronous"), readPragma("mmap_size"),
+                              readPragma("cache_size"), readPragma("temp_store"), readPragma("page_size"));
+        connection.commit();
+    }
+
+    private String readPragma(String name) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getString(1) : "?";
+        }
+    }
+
     private void initializeVersionTable() throws SQLException {
         String createVersionTable = """
             CREATE TABLE IF NOT EXISTS db_version (
@@ -169,12 +212,8 @@ public abstract class AbstractDatabase {
             executeInTransaction(() -> {
                 try (Statement stmt = connection.createStatement()) {
                     // Split and execute SQL statements
-                    String[] statements = migrationSql.split(";");
-                    for (String sql : statements) {
-                        String trimmedSql = sql.trim();
-                        if (!trimmedSql.isEmpty()) {
-                            stmt.execute(trimmedSql);
-                        }
+                    for (String sql : splitStatements(migrationSql)) {
+                        stmt.execute(sql);
                     }
                     
                     // Record migration
@@ -192,12 +231,135 @@ public abstract class AbstractDatabase {
         }
     }
 
+    /**
+     * Split a migration script into statements. Comments are dropped, semicolons inside
+     * quotes are ignored and a CREATE TRIGGER statement runs until the END closing its BEGIN block.
+     */
+    static List<String> splitStatements(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int length = script.length();
+        int i = 0;
+        
+        while (i < length) {
+            char c = script.charAt(i);
+            
+            if (c == '-' && i + 1 < length && script.charAt(i + 1) == '-') {
+                // Line comment
+                while (i < length && script.charAt(i) != '\n') {
+                    i++;
+                }
+                continue;
+            }
+            
+            if (c == '/' && i + 1 < length && script.charAt(i + 1) == '*') {
+                // Block comment
+                int end = script.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+                current.append(' ');
+                continue;
+            }
+            
+            if (c == '\'' || c == '"') {
+                // Quoted string or identifier, a doubled quote is an escaped quote
+                int end = i + 1;
+                while (end < length) {
+                    if (script.charAt(end) == c) {
+                        if (end + 1 < length && script.charAt(end + 1) == c) {
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    end++;
+                }
+                end = Math.min(end + 1, length);
+                current.append(script, i, end);
+                i = end;
+                continue;
+            }
+            
+            if (c == ';') {
+                String statement = current.toString().trim();
+                if (TRIGGER_START.matcher(statement).lookingAt() && !isTriggerComplete(statement)) {
+                    // Semicolon inside a trigger body
+                    current.append(c);
+                } else {
+                    if (!statement.isEmpty()) {
+                        statements.add(statement);
+                    }
+                    current.setLength(0);
+                }
+                i++;
+                continue;
+            }
+            
+            current.append(c);
+            i++;
+        }
+        
+        String last = current.toString().trim();
+        if (!last.isEmpty()) {
+            statements.add(last);
+        }
+        return statements;
+    }
+
+    /**
+     * Whether a CREATE TRIGGER statement has its BEGIN block closed. CASE expressions of the body
+     * also end with END, so blocks are counted rather than looking at the last word.
+     */
+    private static boolean isTriggerComplete(String statement) {
+        int depth = 0;
+        boolean begun = false;
+        int length = statement.length();
+        int i = 0;
+        while (i < length) {
+            char c = statement.charAt(i);
+            if (c == '\'' || c == '"') {
+                // Words in strings and quoted identifiers do not count, a doubled quote reads as two strings
+                int end = statement.indexOf(c, i + 1);
+                i = end < 0 ? length : end + 1;
+            } else if (Character.isLetter(c) || c == '_') {
+                int end = i + 1;
+                while (end < length && (Character.isLetterOrDigit(statement.charAt(end)) || statement.charAt(end) == '_'
+                                        || statement.charAt(end) == '$')) {
+                    end++;
+                }
+                String word = statement.substring(i, end);
+                if (word.equalsIgnoreCase("BEGIN")) {
+                    begun = true;
+                    depth++;
+                } else if (word.equalsIgnoreCase("CASE")) {
+                    depth++;
+                } else if (word.equalsIgnoreCase("END")) {
+                    depth--;
+                }
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return begun && depth <= 0;
+    }
+
     private void createBackup(int version) throws SQLException {
         try {
             String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
             String backupFileName = String.format("%s_v%d_%s.db", dbFileName.replace(".db", ""), version - 1, timestamp);
             Path backupPath = backupDir.resolve(backupFileName);
             
+            // In WAL mode committed pages may still live in the -wal file, fold them into the main file first.
+            // The commit ends our own read transaction, which would otherwise block the checkpoint.
+            connection.commit();
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA wal_checkpoint(TRUNCATE)")) {
+                if (rs.next() && rs.getInt(1) != 0) {
+                    ChatLogsMod.LOGGER.warn("WAL checkpoint before backup was blocked, backup may miss recent changes");
+                }
+            }
+            connection.commit();
+            
             Files.copy(dbPath, backupPath, StandardCopyOption.REPLACE_EXISTING);
             ChatLogsMod.LOGGER.info("Created backup before migration v{}: {}", version, backupPath);
             
@@ -245,11 +407,30 @@ public abstract class AbstractDatabase {
         }
     }
 
+    /**
+     * Run a read-only query on a pooled connection, concurrently with the writer.
+     * Each statement sees the last committed state, no transaction is held on the writer connection.
+     */
+    public <T> T executeRead(TransactionCallable<T> query) throws SQLException {
+        if (readPool == null) {
+            throw new SQLException("Database is not initialized: " + dbFileName);
+        }
+        return readPool.execute(query);
+    }
+
     protected Connection getConnection() {
         return connection;
     }
 
+    protected Path getDatabasePath() {
+        return dbPath;
+    }
+
     public void close() throws SQLException {
+        if (readPool != null) {
+            readPool.close();
+            readPool = null;
+        }
         if (connection != null && !connection.isClosed()) {
             connection.close();
             ChatLogsMod.LOGGER.info("Closed database connection: {}", dbFileName);
@@ -0,0 +1,26 @@
+package fr.raconteur.chatlogs.database;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Second store fed from the ingest stream of a session, such as the text log.
+ * Called on the database writer thread with each group of messages right after it was
+ * committed (or failed to be), in sequence order, so both stores are written by one consumer.
+ */
+public interface CommittedMessageSink {
+    /**
+     * Store messages following the ones of the previous call
+     */
+    void write(List<SessionDatabase.MessageData> messages) throws IOException;
+
+    /**
+     * Time until sync has work to do, 0 if it is due now, or -1 if nothing is waiting
+     */
+    long nanosUntilSync();
+
+    /**
+     * Make previous writes durable if that is due, called while the writer is idle
+     */
+    void sync() throws IOException;
+}
@@ -0,0 +1,85 @@
+package fr.raconteur.chatlogs.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns message field values (channel, rank, kind) into the message_labels table and caches them,
+ * like SenderCache does for senders.
+ * Used on the writer connection only, callers must hold the database write lock.
+ */
+class LabelCache {
+    static final String SELECT_LABEL = "SELECT id FROM message_labels WHERE field = ? AND value = ?";
+    static final String CHANNEL = "channel";
+    static final String RANK = "rank";
+    static final String KIND = "kind";
+    private static final int MAX_ENTRIES = 1_000;
+
+    private final Map<String, Map<String, Long>> ids = new HashMap<>();
+    private final PreparedStatement selectStmt;
+    private final PreparedStatement insertStmt;
+
+    LabelCache(Connection connection) throws SQLException {
+        this.selectStmt = connection.prepareStatement(SELECT_LABEL);
+        this.insertStmt = connection.prepareStatement(
+            "INSERT INTO message_labels (field, value) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS);
+    }
+
+    /**
+     * Get the id of a field value, inserting it within the current transaction if it is new
+     */
+    Long resolve(String field, String value) throws SQLException {
+        if (value == null) {
+            return null;
+        }
+
+        Map<String, Long> fieldIds = ids.computeIfAbsent(field, key -> new HashMap<>());
+        Long id = fieldIds.get(value);
+        if (id != null) {
+            return id;
+        }
+
+        selectStmt.setString(1, field);
+        selectStmt.setString(2, value);
+        try (ResultSet rs = selectStmt.executeQuery()) {
+            if (rs.next()) {
+                id = rs.getLong(1);
+            }
+        }
+
+        if (id == null) {
+            insertStmt.setString(1, field);
+            insertStmt.setString(2, value);
+            insertStmt.executeUpdate();
+            try (ResultSet rs = insertStmt.getGeneratedKeys()) {
+                if (!rs.next()) {
+                    throw new SQLException("Failed to store message " + field + ", no ID obtained");
+                }
+                id = rs.getLong(1);
+            }
+        }
+
+        if (fieldIds.size() >= MAX_ENTRIES) {
+            fieldIds.clear();
+        }
+        fieldIds.put(value, id);
+        return id;
+    }
+
+    /**
+     * Forget all cached ids, required after a rollback since new values may have been undone
+     */
+    void invalidate() {
+        ids.clear();
+    }
+
+    void close() throws SQLException {
+        selectStmt.close();
+        insertStmt.close();
+    }
+}
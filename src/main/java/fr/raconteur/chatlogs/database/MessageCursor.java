@@ -0,0 +1,93 @@
+package fr.raconteur.chatlogs.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the messages of a session in sequence order, one page at a time.
+ * Pages are fetched with keyset pagination on (session_id, seq), so memory use is bounded
+ * by the fetch size and no connection or transaction is held between pages.
+ */
+public class MessageCursor implements Iterator<SessionDatabase.MessageData> {
+    public static final int DEFAULT_FETCH_SIZE = 500;
+
+    private final SessionDatabase database;
+    private final long sessionId;
+    private final int fetchSize;
+    private final List<SessionDatabase.MessageData> page;
+    private long lastSeq; // Last sequence number fetched
+    private long lastReturnedSeq; // Last sequence number handed out by next()
+    private int position = 0;
+    private boolean exhausted = false;
+
+    MessageCursor(SessionDatabase database, long sessionId, long afterSeq, int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("Fetch size must be positive: " + fetchSize);
+        }
+        this.database = database;
+        this.sessionId = sessionId;
+        this.fetchSize = fetchSize;
+        this.page = new ArrayList<>(fetchSize);
+        this.lastSeq = afterSeq;
+        this.lastReturnedSeq = afterSeq;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (position < page.size()) {
+            return true;
+        }
+        if (exhausted) {
+            return false;
+        }
+
+        page.clear();
+        position = 0;
+        try {
+            database.fetchMessagePage(sessionId, lastSeq, fetchSize, page);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to fetch messages for session " + sessionId, e);
+        }
+
+        // A short page means there is nothing left, no need for another query
+        if (page.size() < fetchSize) {
+            exhausted = true;
+        }
+        if (!page.isEmpty()) {
+            lastSeq = page.get(page.size() - 1).seq;
+        }
+        return !page.isEmpty();
+    }
+
+    @Override
+    public SessionDatabase.MessageData next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        SessionDatabase.MessageData message = page.get(position++);
+        lastReturnedSeq = message.seq;
+        return message;
+    }
+
+    /**
+     * Sequence number of the last message returned, usable to resume a cursor later
+     */
+    public long getLastSeq() {
+        return lastReturnedSeq;
+    }
+
+    /**
+     * Wrap the remaining messages into a sequential stream
+     */
+    public Stream<SessionDatabase.MessageData> stream() {
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+}
@@ -0,0 +1,38 @@
+package fr.raconteur.chatlogs.database;
+
+import java.util.Locale;
+
+/**
+ * Structured fields of a message captured by the named groups of its sender pattern,
+ * each null when the pattern has no such group or it matched nothing.
+ * Kind is lower case (whisper, party, global...), the others are kept as captured.
+ */
+public record MessageFields(String channel, String rank, String target, String kind) {
+    public static final MessageFields NONE = new MessageFields(null, null, null, null);
+
+    /**
+     * Fields from captured groups, blank ones counting as missing
+     */
+    public static MessageFields of(String channel, String rank, String target, String kind) {
+        channel = trimmedOrNull(channel);
+        rank = trimmedOrNull(rank);
+        target = trimmedOrNull(target);
+        kind = trimmedOrNull(kind);
+        if (channel == null && rank == null && target == null && kind == null) {
+            return NONE;
+        }
+        return new MessageFields(channel, rank, target, kind != null ? kind.toLowerCase(Locale.ROOT) : null);
+    }
+
+    public boolean isEmpty() {
+        return channel == null && rank == null && target == null && kind == null;
+    }
+
+    private static String trimmedOrNull(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+}
@@ -0,0 +1,210 @@
+package fr.raconteur.chatlogs.database;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Storage codec for the JSON form of chat components (messages.message_json_packed).
+ * <p>
+ * Layout: one format byte, the dictionary id as an unsigned big-endian short, then raw
+ * deflate data compressed against that preset dictionary. The dictionaries live in
+ * message_json_dictionaries so that any SQLite client can decode rows: id 1 is the
+ * built-in dictionary from migration v3, later ids are trained on recorded messages.
+ * Component JSON is mostly repeated keys and style objects, which the dictionary turns
+ * into back-references even for a single short line.
+ */
+public class MessageJsonCodec {
+    public static final int BUILTIN_DICTIONARY_ID = 1;
+    private static final byte FORMAT_DEFLATE = 1;
+    private static final int HEADER_SIZE = 3;
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024; // Deflate window size
+
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private volatile int currentDictionaryId = 0;
+
+    // Only used by the writer thread, which holds the database write lock
+    private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    private final byte[] deflateBuffer = new byte[8192];
+
+    /**
+     * Load every dictionary and select the newest one for encoding
+     */
+    public void loadDictionaries(Connection connection) throws SQLException {
+        String query = "SELECT id, dictionary FROM message_json_dictionaries ORDER BY id";
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            while (rs.next()) {
+                int id = rs.getInt("id");
+                dictionaries.put(id, rs.getBytes("dictionary"));
+                currentDictionaryId = id;
+            }
+        }
+    }
+
+    public int getCurrentDictionaryId() {
+        return currentDictionaryId;
+    }
+
+    public byte[] getDictionary(int id) {
+        return dictionaries.get(id);
+    }
+
+    /**
+     * Store a new dictionary and use it for all messages encoded from now on
+     */
+    public int addDictionary(Connection connection, byte[] dictionary, int sampleCount) throws SQLException {
+        String insert = "INSERT INTO message_json_dictionaries (dictionary, sample_count, created_at) VALUES (?, ?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(insert, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setBytes(1, dictionary);
+            stmt.setInt(2, sampleCount);
+            stmt.setLong(3, System.currentTimeMillis());
+            stmt.executeUpdate();
+
+            try (ResultSet rs = stmt.getGeneratedKeys()) {
+                if (!rs.next()) {
+                    throw new SQLException("Failed to store message JSON dictionary, no ID obtained");
+                }
+                int id = rs.getInt(1);
+                dictionaries.put(id, dictionary);
+                currentDictionaryId = id;
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Encode with the current dictionary. Must only be called by the thread holding the write lock.
+     */
+    public byte[] encode(String json) {
+        if (json == null) {
+            return null;
+        }
+
+        int dictionaryId = currentDictionaryId;
+        byte[] dictionary = dictionaries.get(dictionaryId);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length() / 3 + 16);
+        out.write(FORMAT_DEFLATE);
+        out.write((dictionaryId >>> 8) & 0xFF);
+        out.write(dictionaryId & 0xFF);
+
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(json.getBytes(StandardCharsets.UTF_8));
+        deflater.finish();
+        while (!deflater.finished()) {
+            int length = deflater.deflate(deflateBuffer);
+            out.write(deflateBuffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a packed value, safe to call from any thread
+     */
+    public String decode(byte[] packed) throws SQLException {
+        if (packed == null) {
+            return null;
+        }
+        if (packed.length < HEADER_SIZE || packed[0] != FORMAT_DEFLATE) {
+            throw new SQLException("Unknown message JSON encoding");
+        }
+
+        int dictionaryId = ((packed[1] & 0xFF) << 8) | (packed[2] & 0xFF);
+        Inflater inflater = new Inflater(true);
+        try {
+            if (dictionaryId != 0) {
+                byte[] dictionary = dictionaries.get(dictionaryId);
+                if (dictionary == null) {
+                    throw new SQLException("Missing message JSON dictionary " + dictionaryId);
+                }
+                inflater.setDictionary(dictionary);
+            }
+            inflater.setInput(packed, HEADER_SIZE, packed.length - HEADER_SIZE);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(packed.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new SQLException("Truncated message JSON value");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new SQLException("Corrupted message JSON value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Build a preset dictionary from sample messages, on top of a base dictionary.
+     * Each JSON value is cut at every '{', giving whole style and event objects; fragments seen
+     * more than once are appended after the base, the most valuable ones last since deflate
+     * reaches the end of the dictionary with the shortest distances.
+     */
+    public static byte[] trainDictionary(byte[] base, List<String> samples) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String json : samples) {
+            int start = 0;
+            while (start < json.length()) {
+                int end = json.indexOf('{', start + 1);
+                if (end < 0) {
+                    end = json.length();
+                }
+                String fragment = json.substring(start, end);
+                if (fragment.length() >= 4) {
+                    counts.merge(fragment, 1, Integer::sum);
+                }
+                start = end;
+            }
+        }
+
+        // Rank by the bytes a fragment would save across the samples
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1) {
+                ranked.add(entry);
+            }
+        }
+        ranked.sort(Comparator.comparingLong(
+            (Map.Entry<String, Integer> entry) -> (long) entry.getKey().length() * entry.getValue()).reversed());
+
+        List<byte[]> selected = new ArrayList<>();
+        int size = base.length;
+        for (Map.Entry<String, Integer> entry : ranked) {
+            byte[] fragment = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (size + fragment.length > MAX_DICTIONARY_SIZE) {
+                continue;
+            }
+            selected.add(fragment);
+            size += fragment.length;
+        }
+
+        // Best fragments go last
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        dictionary.writeBytes(base);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            dictionary.writeBytes(selected.get(i));
+        }
+        return dictionary.toByteArray();
+    }
+}
@@ -0,0 +1,60 @@
+package fr.raconteur.chatlogs.database;
+
+import fr.raconteur.chatlogs.ChatLogsExecutor;
+import fr.raconteur.chatlogs.ChatLogsMod;
+
+/**
+ * Background job started with the database: trains a message JSON dictionary once enough
+ * messages exist, then repacks rows recorded before migration v3 in small batches,
+ * pausing between batches so that recording keeps priority on the write lock.
+ */
+public class MessageJsonRepacker {
+    private static final int TRAINING_MIN_SAMPLES = 1000;
+    private static final int TRAINING_MAX_SAMPLES = 5000;
+    private static final int BATCH_SIZE = 500;
+    private static final long PAUSE_BETWEEN_BATCHES_MS = 50;
+
+    private final SessionDatabase database;
+    private final ChatLogsExecutor.Task task;
+    private volatile boolean running = true;
+
+    public MessageJsonRepacker(SessionDatabase database) {
+        this.database = database;
+        this.task = ChatLogsExecutor.getInstance()
+            .submit(ChatLogsExecutor.TaskType.MAINTENANCE, "ChatLog JSON Repacker", this::run);
+    }
+
+    private void run() {
+        try {
+            database.trainMessageJsonDictionaryIfNeeded(TRAINING_MIN_SAMPLES, TRAINING_MAX_SAMPLES);
+
+            long lastId = 0;
+            while (running) {
+                long batchEnd = database.repackMessageJsonBatch(lastId, BATCH_SIZE);
+                if (batchEnd < 0) {
+                    break;
+                }
+                lastId = batchEnd;
+                Thread.sleep(PAUSE_BETWEEN_BATCHES_MS);
+            }
+
+            if (lastId > 0) {
+                ChatLogsMod.LOGGER.info("Repacked stored message JSON up to message {}", lastId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            ChatLogsMod.LOGGER.error("Failed to repack stored message JSON, will retry on next start", e);
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        task.cancel();
+        try {
+            task.await(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
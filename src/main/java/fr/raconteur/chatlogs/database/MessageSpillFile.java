@@ -0,0 +1,299 @@
+package fr.raconteur.chatlogs.database;
+
+import fr.raconteur.chatlogs.ChatLogsMod;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * On-disk overflow of the write-behind queue.
+ * Records are appended while the queue is full and read back in order by the writer thread;
+ * once every record has been read the file is deleted. A file left by a crash is replayed
+ * on the next start, a truncated last record is discarded.
+ * <p>
+ * The file starts with a magic number and the version of the record layout. A file written with
+ * another layout is not replayed but set aside, its records would be read from the wrong offsets.
+ * <p>
+ * Record layout: session id, sequence number, timestamp, then sender, text, JSON, channel, rank, target,
+ * kind and sender UUID as length-prefixed UTF-8 (length -1 for null).
+ */
+public class MessageSpillFile {
+    private static final int MAX_STRING_BYTES = 16 * 1024 * 1024;
+    private static final int STRING_FIELDS = 8;
+    private static final int MAGIC = 0x434C5350; // "CLSP"
+    private static final int FORMAT_VERSION = 1; // Bump when the record layout changes
+    private static final int HEADER_SIZE = 8;
+
+    private final Path path;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private long pendingRecords = 0;
+    private long committedLength = 0; // Bytes of the header and complete records in the file
+
+    public MessageSpillFile(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Count the records left by a previous run, truncating a partially written last record.
+     * A file of another layout version is renamed aside and nothing is replayed.
+     */
+    public synchronized long open() throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        long validLength = HEADER_SIZE;
+        long records = 0;
+        try (DataInputStream reader = new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile())))) {
+            int version = readVersion(reader);
+            if (version != FORMAT_VERSION) {
+                reader.close();
+                setAside(version);
+                return 0;
+            }
+            while (true) {
+                long length = skipRecord(reader);
+                if (length < 0) {
+                    break;
+                }
+                validLength += length;
+                records++;
+            }
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            if (file.length() != validLength) {
+                ChatLogsMod.LOGGER.warn("Discarding {} bytes of incomplete spilled messages", file.length() - validLength);
+                file.setLength(validLength);
+            }
+        }
+
+        pendingRecords = records;
+        committedLength = validLength;
+        if (records == 0) {
+            reset();
+        }
+        return records;
+    }
+
+    /**
+     * Layout version of a spill file, 0 if it has no header (written before there was one) or an incomplete one
+     */
+    private static int readVersion(DataInputStream in) throws IOException {
+        try {
+            if (in.readInt() != MAGIC) {
+                return 0;
+            }
+            return in.readInt();
+        } catch (EOFException e) {
+            return 0;
+        }
+    }
+
+    private void setAside(int version) throws IOException {
+        if (Files.size(path) < HEADER_SIZE) {
+            // Crashed while writing the header of a new file, nothing was spilled to it
+            Files.delete(path);
+            return;
+        }
+        Path aside = path.resolveSibling(path.getFileName() + ".v" + version + "-" + System.currentTimeMillis());
+        Files.move(path, aside);
+        ChatLogsMod.LOGGER.warn("Spilled chat messages in {} were written by another version (layout v{}, expected v{}), "
+                                + "they are not replayed and were moved to {}", path.getFileName(), version, FORMAT_VERSION,
+                                aside.getFileName());
+    }
+
+    public synchronized boolean hasPending() {
+        return pendingRecords > 0;
+    }
+
+    public synchronized long getPendingCount() {
+        return pendingRecords;
+    }
+
+    /**
+     * Append a message
+     */
+    public synchronized void append(long sessionId, SessionDatabase.MessageData message) throws IOException {
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile(), true)));
+        }
+        if (committedLength == 0) {
+            writeHeader();
+        }
+        int start = out.size();
+        try {
+            out.writeLong(sessionId);
+            out.writeLong(message.seq);
+            out.writeLong(message.timestamp);
+            writeString(out, message.senderName);
+            writeString(out, message.messageText);
+            writeString(out, message.messageJson);
+            writeString(out, message.fields.channel());
+            writeString(out, message.fields.rank());
+            writeString(out, message.fields.target());
+            writeString(out, message.fields.kind());
+            writeString(out, message.senderUuid);
+            out.flush();
+        } catch (IOException e) {
+            // Cut the partial record so that the next ones can still be read
+            out.close();
+            out = null;
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.setLength(committedLength);
+            }
+            throw e;
+        }
+        committedLength += out.size() - start;
+        pendingRecords++;
+    }
+
+    /**
+     * Append a message only if older ones are still waiting, so that they keep their order.
+     * Returns false if the file is empty and the message should go to the queue.
+     */
+    public synchronized boolean appendIfPending(long sessionId, SessionDatabase.MessageData message) throws IOException {
+        if (pendingRecords == 0) {
+            return false;
+        }
+        append(sessionId, message);
+        return true;
+    }
+
+    /**
+     * Read up to max of the oldest records, deleting the file once all of them have been read
+     */
+    public synchronized int readBatch(List<Long> sessionIds, List<SessionDatabase.MessageData> messages, int max) throws IOException {
+        if (pendingRecords == 0) {
+            return 0;
+        }
+        if (in == null) {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile())));
+            in.skipNBytes(HEADER_SIZE); // Checked by open, or written by this run
+        }
+
+        int count = 0;
+        while (count < max && pendingRecords > 0) {
+            sessionIds.add(in.readLong());
+            long seq = in.readLong();
+            long timestamp = in.readLong();
+            String senderName = readString(in);
+            String messageText = readString(in);
+            String messageJson = readString(in);
+            MessageFields fields = MessageFields.of(readString(in), readString(in), readString(in), readString(in));
+            String senderUuid = readString(in);
+            messages.add(new SessionDatabase.MessageData(0, seq, senderName, senderUuid, fields, messageText, messageJson,
+                                                         timestamp, 1, timestamp));
+            pendingRecords--;
+            count++;
+        }
+
+        if (pendingRecords == 0) {
+            reset();
+        }
+        return count;
+    }
+
+    /**
+     * Delete the file and forget its unread records after an unrecoverable error, returning how many were lost
+     */
+    public synchronized long discard() {
+        long discarded = pendingRecords;
+        pendingRecords = 0;
+        try {
+            reset();
+        } catch (IOException e) {
+            ChatLogsMod.LOGGER.error("Failed to delete chat message spill file {}", path, e);
+        }
+        return discarded;
+    }
+
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.flush();
+        } catch (IOException e) {
+            out.close();
+            out = null;
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        committedLength = HEADER_SIZE;
+    }
+
+    private void reset() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+        committedLength = 0;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Skip one record, returning its size in bytes or -1 at the end of the valid data
+     */
+    private static long skipRecord(DataInputStream in) throws IOException {
+        try {
+            long length = 24;
+            in.readLong();
+            in.readLong();
+            in.readLong();
+            for (int i = 0; i < STRING_FIELDS; i++) {
+                int stringLength = in.readInt();
+                length += 4;
+                if (stringLength < -1 || stringLength > MAX_STRING_BYTES) {
+                    return -1; // Garbage from an interrupted write
+                }
+                if (stringLength > 0) {
+                    in.readFully(new byte[stringLength]);
+                    length += stringLength;
+                }
+            }
+            return length;
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+}
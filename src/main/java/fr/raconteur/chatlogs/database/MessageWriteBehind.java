@@ -0,0 +1,410 @@
+package fr.raconteur.chatlogs.database;
+
+import fr.raconteur.chatlogs.ChatLogsExecutor;
+import fr.raconteur.chatlogs.ChatLogsMod;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind stage between the recorder and SQLite.
+ * Messages are queued by the caller and committed by a background thread in group
+ * commits of up to maxBatchSize messages, waiting at most maxLatencyMs for a batch to fill.
+ * The queue is bounded, a full queue is handled according to the OverflowPolicy.
+ * <p>
+ * This is the single ordered ingest stream of recorded messages: after each commit the
+ * messages are passed to the sink attached to their session (the text log), so SQLite and
+ * the text file are written by the same thread in the same order.
+ */
+public class MessageWriteBehind {
+    private static final long MIN_IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final SessionDatabase database;
+    private final int maxBatchSize;
+    private final long maxLatencyNanos;
+    private final long checkpointIntervalNanos;
+    private long lastCheckpoint = System.nanoTime();
+
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+    private final MessageSpillFile spillFile;
+
+    private final BlockingQueue<PendingMessage> queue;
+    private final Map<Long, CommittedMessageSink> sinks = new ConcurrentHashMap<>();
+    private final List<PendingMessage> batch = new ArrayList<>();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // Flush tracking: a flush waits until everything enqueued before it has been processed
+    private final Object progressLock = new Object();
+    private long enqueuedCount = 0;
+    private long processedCount = 0;
+
+    // Overflow counters
+    private final AtomicLong highWaterMark = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+
+    public MessageWriteBehind(SessionDatabase database, int maxBatchSize, long maxLatencyMs,
+                              long checkpointIntervalMs, int capacity, OverflowPolicy overflowPolicy,
+                              long blockTimeoutMs, Path spillPath) {
+        this.database = database;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMs);
+        this.checkpointIntervalNanos = TimeUnit.MILLISECONDS.toNanos(checkpointIntervalMs);
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        // Messages spilled by a previous run are replayed before anything else
+        this.spillFile = new MessageSpillFile(spillPath);
+        try {
+            long leftover = spillFile.open();
+            if (leftover > 0) {
+                ChatLogsMod.LOGGER.warn("Replaying {} chat messages spilled to disk by a previous run", leftover);
+                enqueuedCount += leftover;
+            }
+        } catch (IOException e) {
+            ChatLogsMod.LOGGER.error("Failed to read spilled chat messages from {}", spillPath, e);
+        }
+
+        // SQLite calls are native, the writer keeps a platform thread rather than pinning a virtual one
+        this.writerThread = ChatLogsExecutor.getInstance()
+            .startPinned(ChatLogsExecutor.TaskType.DATABASE_WRITER, "ChatLog DB Writer", this::writerLoop)
+            .thread();
+    }
+
+    /**
+     * Queue a message for the next group commit
+     */
+    public void enqueue(long sessionId, SessionDatabase.MessageData message) {
+        synchronized (progressLock) {
+            if (!running) {
+                throw new IllegalStateException("Write-behind stage is stopped");
+            }
+            enqueuedCount++;
+        }
+
+        PendingMessage pending = new PendingMessage(sessionId, message);
+        try {
+            // Once messages are spilled, the following ones join them to keep their order
+            if (spillFile.appendIfPending(sessionId, message)) {
+                spilledCount.incrementAndGet();
+                return;
+            }
+        } catch (IOException e) {
+            ChatLogsMod.LOGGER.error("Failed to spill chat message to disk", e);
+            messageDropped();
+            return;
+        }
+
+        if (!queue.offer(pending)) {
+            handleOverflow(pending);
+        }
+        updateHighWaterMark();
+    }
+
+    private void handleOverflow(PendingMessage pending) {
+        switch (overflowPolicy) {
+            case BLOCK -> {
+                boolean queued = false;
+                try {
+                    queued = queue.offer(pending, blockTimeoutNanos, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (!queued) {
+                    messageDropped();
+                }
+            }
+            case DROP_OLDEST -> {
+                while (!queue.offer(pending)) {
+                    if (queue.poll() != null) {
+                        messageDropped();
+                    }
+                }
+            }
+            case SPILL -> {
+                try {
+                    spillFile.append(pending.sessionId, pending.message);
+                    if (spilledCount.incrementAndGet() == 1) {
+                        ChatLogsMod.LOGGER.warn("Database write queue is full, spilling chat messages to disk");
+                    }
+                } catch (IOException e) {
+                    ChatLogsMod.LOGGER.error("Failed to spill chat message to disk", e);
+                    messageDropped();
+                }
+            }
+        }
+    }
+
+    private void messageDropped() {
+        if (droppedCount.incrementAndGet() == 1) {
+            ChatLogsMod.LOGGER.warn("Database write queue is full, dropping chat messages ({} policy)", overflowPolicy);
+        }
+        synchronized (progressLock) {
+            processedCount++;
+            progressLock.notifyAll();
+        }
+    }
+
+    private void updateHighWaterMark() {
+        long size = queue.size();
+        if (size > highWaterMark.get()) {
+            highWaterMark.accumulateAndGet(size, Math::max);
+        }
+    }
+
+    public void attachSink(long sessionId, CommittedMessageSink sink) {
+        sinks.put(sessionId, sink);
+    }
+
+    public void detachSink(long sessionId) {
+        sinks.remove(sessionId);
+    }
+
+    /**
+     * Whether a recorder feeds the session, its sink being attached
+     */
+    public boolean isRecorded(long sessionId) {
+        return sinks.containsKey(sessionId);
+    }
+
+    /**
+     * Block until every message queued before this call has been committed (or failed)
+     * and passed to its sink
+     */
+    public void flush() {
+        if (Thread.currentThread() == writerThread) {
+            return;
+        }
+
+        synchronized (progressLock) {
+            long target = enqueuedCount;
+            while (processedCount < target && writerThread.isAlive()) {
+                try {
+                    progressLock.wait(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    ChatLogsMod.LOGGER.warn("Interrupted while flushing queued chat messages");
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Flush pending messages and stop the writer thread
+     */
+    public void shutdown() {
+        synchronized (progressLock) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+
+        // Wakes the writer if it is idle, a running batch is still committed
+        writerThread.interrupt();
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ChatLogsMod.LOGGER.warn("Interrupted while waiting for database writer thread to finish");
+        }
+
+        if (!writerThread.isAlive()) {
+            try {
+                spillFile.close();
+            } catch (IOException e) {
+                ChatLogsMod.LOGGER.error("Failed to close chat message spill file", e);
+            }
+        }
+        ChatLogsMod.LOGGER.info("Database write queue: high-water mark {}/{}, {} dropped, {} spilled, {} left on disk",
+                                highWaterMark.get(), capacity, droppedCount.get(), spilledCount.get(),
+                                spillFile.getPendingCount());
+    }
+
+    public long getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    private void writerLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                // Spilled messages are newer than anything queued, they go once the queue is empty
+                if (running && queue.isEmpty() && spillFile.hasPending()) {
+                    replaySpilled();
+                    continue;
+                }
+
+                // Idle until a message arrives, a sink sync or the next count checkpoint, shutdown interrupts the wait
+                long untilCheckpoint = checkpointIntervalNanos - (System.nanoTime() - lastCheckpoint);
+                long wait = Math.max(untilCheckpoint, MIN_IDLE_WAIT_NANOS);
+                for (CommittedMessageSink sink : sinks.values()) {
+                    long untilSync = sink.nanosUntilSync();
+                    if (untilSync >= 0) {
+                        wait = Math.min(wait, untilSync);
+                    }
+                }
+                if (wait == 0) {
+                    // A sync is due now, a zero wait must not turn into waiting for the next message
+                    syncSinks();
+                    continue;
+                }
+                PendingMessage first = queue.poll(wait, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    syncSinks();
+                    checkpointIfDue();
+                    continue;
+                }
+
+                batch.add(first);
+                long deadline = System.nanoTime() + maxLatencyNanos;
+
+                // Keep filling the batch until it is full or the oldest message has waited long enough
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    if (batch.size() >= maxBatchSize || !running) {
+                        break;
+                    }
+
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+
+                    PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                commitBatch();
+                checkpointIfDue();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // Whatever is left after an interrupt is still committed, spilled messages stay on disk
+        queue.drainTo(batch);
+        commitBatch();
+    }
+
+    private void replaySpilled() {
+        List<Long> sessionIds = new ArrayList<>(maxBatchSize);
+        List<SessionDatabase.MessageData> messages = new ArrayList<>(maxBatchSize);
+        try {
+            spillFile.readBatch(sessionIds, messages, maxBatchSize);
+        } catch (IOException e) {
+            long discarded = spillFile.discard();
+            ChatLogsMod.LOGGER.error("Failed to read spilled chat messages, discarding {} of them", discarded, e);
+            droppedCount.addAndGet(discarded);
+            synchronized (progressLock) {
+                processedCount += discarded;
+                progressLock.notifyAll();
+            }
+            return;
+        }
+
+        for (int i = 0; i < messages.size(); i++) {
+            batch.add(new PendingMessage(sessionIds.get(i), messages.get(i)));
+        }
+        commitBatch();
+        checkpointIfDue();
+    }
+
+    private void syncSinks() {
+        for (Map.Entry<Long, CommittedMessageSink> entry : sinks.entrySet()) {
+            try {
+                entry.getValue().sync();
+            } catch (Exception e) {
+                ChatLogsMod.LOGGER.error("Failed to sync chat log of session {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    private void checkpointIfDue() {
+        long now = System.nanoTime();
+        if (now - lastCheckpoint < checkpointIntervalNanos) {
+            return;
+        }
+        lastCheckpoint = now;
+
+        try {
+            database.checkpointMessageCounts();
+        } catch (Exception e) {
+            ChatLogsMod.LOGGER.error("Failed to checkpoint message counts", e);
+        }
+    }
+
+    private void commitBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        int start = 0;
+        while (start < batch.size()) {
+            // Group consecutive messages belonging to the same session
+            long sessionId = batch.get(start).sessionId;
+            int end = start + 1;
+            while (end < batch.size() && batch.get(end).sessionId == sessionId) {
+                end++;
+            }
+
+            List<SessionDatabase.MessageData> messages = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                messages.add(batch.get(i).message);
+            }
+
+            try {
+                database.addMessagesBulk(sessionId, messages);
+            } catch (Exception e) {
+                ChatLogsMod.LOGGER.error("Failed to save {} messages to SQLite for session {}",
+                                       messages.size(), sessionId, e);
+            }
+
+            // The text log gets the messages even if SQLite failed, it is the record of last resort
+            CommittedMessageSink sink = sinks.get(sessionId);
+            if (sink != null) {
+                try {
+                    sink.write(messages);
+                } catch (Exception e) {
+                    ChatLogsMod.LOGGER.error("Failed to write {} messages to the chat log of session {}",
+                                           messages.size(), sessionId, e);
+                }
+            }
+            start = end;
+        }
+
+        synchronized (progressLock) {
+            processedCount += batch.size();
+            progressLock.notifyAll();
+        }
+        batch.clear();
+    }
+
+    private record PendingMessage(long sessionId, SessionDatabase.MessageData message) {
+    }
+}
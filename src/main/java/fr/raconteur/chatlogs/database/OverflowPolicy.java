@@ -0,0 +1,27 @@
+package fr.raconteur.chatlogs.database;
+
+/**
+ * What the write-behind stage does with a message when its queue is full
+ */
+public enum OverflowPolicy {
+    /** Wait up to the configured timeout for room in the queue, then drop the message */
+    BLOCK,
+    /** Drop the oldest queued message to make room */
+    DROP_OLDEST,
+    /** Append the message to an overflow file on disk, replayed in order once the queue drains */
+    SPILL;
+
+    /**
+     * Parse a policy name from config, falling back to SPILL
+     */
+    public static OverflowPolicy fromName(String name) {
+        if (name != null) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name.trim())) {
+                    return policy;
+                }
+            }
+        }
+        return SPILL;
+    }
+}
@@ -0,0 +1,93 @@
+package fr.raconteur.chatlogs.database;
+
+import fr.raconteur.chatlogs.ChatLogsMod;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Regression check of the query plans against the current schema.
+ * Each registered query is run through EXPLAIN QUERY PLAN and rejected if SQLite would
+ * scan a whole table or sort through a temporary B-tree, which means an index is missing
+ * or no longer matches the query.
+ */
+public class QueryPlanVerifier {
+    private final List<PlannedQuery> queries = new ArrayList<>();
+
+    /**
+     * Register a query that must be answered from indexes only
+     */
+    public QueryPlanVerifier expectIndexed(String name, String sql) {
+        queries.add(new PlannedQuery(name, sql, false));
+        return this;
+    }
+
+    /**
+     * Register a query meant to read every row of a table, in index order (no sort allowed)
+     */
+    public QueryPlanVerifier expectFullRead(String name, String sql) {
+        queries.add(new PlannedQuery(name, sql, true));
+        return this;
+    }
+
+    /**
+     * Check every registered query, throwing with the offending plans if any is rejected
+     */
+    public void verify(Connection connection) throws SQLException {
+        List<String> failures = new ArrayList<>();
+
+        for (PlannedQuery query : queries) {
+            List<String> plan = explain(connection, query.sql);
+            for (String step : plan) {
+                if (isRejected(step, query.fullRead)) {
+                    failures.add(query.name + ": " + String.join(" | ", plan));
+                    break;
+                }
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new SQLException("Query plans not backed by indexes:\n  " + String.join("\n  ", failures));
+        }
+        ChatLogsMod.LOGGER.info("Verified query plans of {} queries", queries.size());
+    }
+
+    private static List<String> explain(Connection connection, String sql) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            // Plans do not depend on parameter values, bind NULL everywhere
+            int parameterCount = stmt.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameterCount; i++) {
+                stmt.setObject(i, null);
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    plan.add(rs.getString("detail"));
+                }
+            }
+        }
+        return plan;
+    }
+
+    private static boolean isRejected(String step, boolean fullRead) {
+        if (step.contains("USE TEMP B-TREE")) {
+            return true;
+        }
+        if (!step.startsWith("SCAN ")) {
+            return false;
+        }
+        // FTS5 tables report their index lookups as a scan of the virtual table
+        if (step.contains("VIRTUAL TABLE")) {
+            return false;
+        }
+        return !(fullRead && step.contains(" USING "));
+    }
+
+    private record PlannedQuery(String name, String sql, boolean fullRead) {
+    }
+}
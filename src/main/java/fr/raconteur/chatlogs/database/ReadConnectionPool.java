@@ -0,0 +1,86 @@
+package fr.raconteur.chatlogs.database;
+
+import fr.raconteur.chatlogs.ChatLogsMod;
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small fixed pool of read-only connections.
+ * In WAL mode each query runs against its own snapshot and never waits for the writer connection.
+ */
+public class ReadConnectionPool {
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+
+    private final List<Connection> connections = new ArrayList<>();
+    private final BlockingQueue<Connection> idle;
+    private volatile boolean closed = false;
+
+    public ReadConnectionPool(String url, int size, SqliteProfile profile, int busyTimeoutMs) throws SQLException {
+        this.idle = new ArrayBlockingQueue<>(size);
+
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        config.setBusyTimeout(busyTimeoutMs);
+
+        try {
+            for (int i = 0; i < size; i++) {
+                Connection connection = config.createConnection(url);
+                profile.applyToReader(connection);
+                connections.add(connection);
+                idle.add(connection);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Run a query on an idle read connection, waiting for one to be released if needed
+     */
+    public <T> T execute(AbstractDatabase.TransactionCallable<T> query) throws SQLException {
+        Connection connection = borrow();
+        try {
+            return query.call(connection);
+        } finally {
+            idle.add(connection);
+        }
+    }
+
+    private Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Read connection pool is closed");
+        }
+
+        try {
+            Connection connection = idle.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (connection == null) {
+                throw new SQLException("Timed out waiting for a read connection");
+            }
+            return connection;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection", e);
+        }
+    }
+
+    public void close() {
+        closed = true;
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                ChatLogsMod.LOGGER.warn("Error closing read connection", e);
+            }
+        }
+        connections.clear();
+        idle.clear();
+    }
+}
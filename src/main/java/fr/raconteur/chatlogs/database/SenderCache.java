@@ -0,0 +1,100 @@
+package fr.raconteur.chatlogs.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns sender names into the senders table and caches name -> id, with the UUID stored for the name.
+ * Used on the writer connection only, callers must hold the database write lock.
+ */
+class SenderCache {
+    static final String SELECT_SENDER = "SELECT id, uuid FROM senders WHERE name = ?";
+    private static final int MAX_ENTRIES = 10_000;
+
+    private final Map<String, Sender> senders = new HashMap<>();
+    private final PreparedStatement selectStmt;
+    private final PreparedStatement insertStmt;
+    private final PreparedStatement updateUuidStmt;
+
+    SenderCache(Connection connection) throws SQLException {
+        this.selectStmt = connection.prepareStatement(SELECT_SENDER);
+        this.insertStmt = connection.prepareStatement(
+            "INSERT INTO senders (name, uuid) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS);
+        this.updateUuidStmt = connection.prepareStatement("UPDATE senders SET uuid = ? WHERE id = ?");
+    }
+
+    /**
+     * Get the id of a sender, inserting it within the current transaction if it is new
+     */
+    Long resolve(String name) throws SQLException {
+        return resolve(name, null);
+    }
+
+    /**
+     * Get the id of a sender, inserting it within the current transaction if it is new.
+     * A known UUID replaces the stored one: names are unique at a time, the latest owner wins.
+     */
+    Long resolve(String name, String uuid) throws SQLException {
+        if (name == null) {
+            return null;
+        }
+
+        Sender sender = senders.get(name);
+        if (sender != null && (uuid == null || uuid.equals(sender.uuid()))) {
+            return sender.id();
+        }
+
+        if (sender == null) {
+            selectStmt.setString(1, name);
+            try (ResultSet rs = selectStmt.executeQuery()) {
+                if (rs.next()) {
+                    sender = new Sender(rs.getLong(1), rs.getString(2));
+                }
+            }
+        }
+
+        if (sender == null) {
+            insertStmt.setString(1, name);
+            insertStmt.setString(2, uuid);
+            insertStmt.executeUpdate();
+            try (ResultSet rs = insertStmt.getGeneratedKeys()) {
+                if (!rs.next()) {
+                    throw new SQLException("Failed to store sender, no ID obtained");
+                }
+                sender = new Sender(rs.getLong(1), uuid);
+            }
+        } else if (uuid != null && !uuid.equals(sender.uuid())) {
+            updateUuidStmt.setString(1, uuid);
+            updateUuidStmt.setLong(2, sender.id());
+            updateUuidStmt.executeUpdate();
+            sender = new Sender(sender.id(), uuid);
+        }
+
+        if (senders.size() >= MAX_ENTRIES) {
+            senders.clear();
+        }
+        senders.put(name, sender);
+        return sender.id();
+    }
+
+    /**
+     * Forget all cached senders, required after a rollback since new senders and UUIDs may have been undone
+     */
+    void invalidate() {
+        senders.clear();
+    }
+
+    void close() throws SQLException {
+        selectStmt.close();
+        insertStmt.close();
+        updateUuidStmt.close();
+    }
+
+    private record Sender(long id, String uuid) {
+    }
+}
@@ -0,0 +1,111 @@
+package fr.raconteur.chatlogs.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory copy of the sessions table, loaded once and kept up to date by SessionDatabase.
+ * Readers get immutable snapshots without locking; every change builds a new snapshot
+ * (copy-on-write) and publishes it after the matching transaction has committed.
+ * Changes are applied by the thread holding the database write lock only.
+ */
+public class SessionCatalog {
+    private static final Comparator<SessionDatabase.SessionData> NEWEST_FIRST =
+        Comparator.comparingLong((SessionDatabase.SessionData session) -> session.startTime).reversed()
+                  .thenComparing(Comparator.comparingLong((SessionDatabase.SessionData session) -> session.id).reversed());
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+
+    /**
+     * Sessions ordered by start time, newest first. The list is immutable.
+     */
+    public List<SessionDatabase.SessionData> getSessions() {
+        return snapshot.sessions;
+    }
+
+    /**
+     * Get a session by id, or null if it does not exist
+     */
+    public SessionDatabase.SessionData getSession(long id) {
+        return snapshot.byId.get(id);
+    }
+
+    public int size() {
+        return snapshot.sessions.size();
+    }
+
+    void load(List<SessionDatabase.SessionData> sessions) {
+        List<SessionDatabase.SessionData> sorted = new ArrayList<>(sessions);
+        sorted.sort(NEWEST_FIRST);
+        snapshot = new Snapshot(sorted);
+    }
+
+    /**
+     * Insert new sessions or replace existing ones with their updated rows
+     */
+    void put(List<SessionDatabase.SessionData> updated) {
+        if (updated.isEmpty()) {
+            return;
+        }
+
+        Map<Long, SessionDatabase.SessionData> replacements = new HashMap<>();
+        for (SessionDatabase.SessionData session : updated) {
+            replacements.put(session.id, session);
+        }
+
+        List<SessionDatabase.SessionData> current = snapshot.sessions;
+        List<SessionDatabase.SessionData> sessions = new ArrayList<>(current.size() + replacements.size());
+        boolean reordered = false;
+        for (SessionDatabase.SessionData session : current) {
+            SessionDatabase.SessionData replacement = replacements.remove(session.id);
+            if (replacement == null) {
+                sessions.add(session);
+            } else {
+                sessions.add(replacement);
+                reordered |= replacement.startTime != session.startTime;
+            }
+        }
+
+        // New sessions usually start after every other one and go first
+        for (SessionDatabase.SessionData session : replacements.values()) {
+            sessions.add(session);
+            reordered = true;
+        }
+        if (reordered) {
+            sessions.sort(NEWEST_FIRST);
+        }
+        snapshot = new Snapshot(sessions);
+    }
+
+    void remove(long id) {
+        Snapshot current = snapshot;
+        if (!current.byId.containsKey(id)) {
+            return;
+        }
+
+        List<SessionDatabase.SessionData> sessions = new ArrayList<>(current.sessions.size() - 1);
+        for (SessionDatabase.SessionData session : current.sessions) {
+            if (session.id != id) {
+                sessions.add(session);
+            }
+        }
+        snapshot = new Snapshot(sessions);
+    }
+
+    private static final class Snapshot {
+        final List<SessionDatabase.SessionData> sessions;
+        final Map<Long, SessionDatabase.SessionData> byId;
+
+        Snapshot(List<SessionDatabase.SessionData> sessions) {
+            this.sessions = Collections.unmodifiableList(sessions);
+            this.byId = new HashMap<>(sessions.size() * 2);
+            for (SessionDatabase.SessionData session : sessions) {
+                byId.put(session.id, session);
+            }
+        }
+    }
+}
@@ -1,32 +1,140 @@
 package fr.raconteur.chatlogs.database;
 
 import fr.raconteur.chatlogs.ChatLogsMod;
+import fr.raconteur.chatlogs.config.ChatLogsSettings;
+import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.text.Text;
 
+import java.nio.file.Path;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class SessionDatabase extends AbstractDatabase {
     private static SessionDatabase instance;
     private static final Object INSTANCE_LOCK = new Object();
     
-    // Thread safety
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Queries run against the messages and sessions tables, their plans are checked by verifyQueryPlans
+    private static final String UPDATE_SESSION_END =
+        "UPDATE sessions SET end_time = ?, " +
+        "message_count = (SELECT COALESCE(SUM(repeat_count), 0) FROM messages WHERE session_id = ?), " +
+        "updated_at = ? WHERE id = ?";
+    private static final String UPDATE_MESSAGE_COUNT =
+        "UPDATE sessions SET message_count = message_count + ?, updated_at = ? WHERE id = ?";
+    private static final String SELECT_ALL_SESSIONS =
+        "SELECT * FROM sessions ORDER BY start_time DESC";
+    private static final String SELECT_SESSION =
+        "SELECT * FROM sessions WHERE id = ?";
+    private static final String DELETE_SESSION_MESSAGES =
+        "DELETE FROM messages WHERE session_id = ?";
+    private static final String DELETE_SESSION =
+        "DELETE FROM sessions WHERE id = ?";
+    // Wall-clock time is only used to seek, order always comes from seq
+    private static final String SELECT_FIRST_MESSAGE_AT =
+        "SELECT seq FROM messages WHERE session_id = ? AND timestamp >= ? ORDER BY timestamp LIMIT 1";
+    // The last row of a session may be a run, its last sequence number is seq + repeat_count - 1
+    private static final String SELECT_LAST_SEQ =
+        "SELECT seq + repeat_count - 1 FROM messages WHERE session_id = ? ORDER BY seq DESC LIMIT 1";
+    private static final String SELECT_RUN_AT_SEQ =
+        "SELECT seq FROM messages WHERE session_id = ? AND seq <= ? ORDER BY seq DESC LIMIT 1";
+    private static final String UPDATE_RUN =
+        "UPDATE messages SET repeat_count = repeat_count + ?, last_timestamp = ? WHERE id = ?";
+    private static final String SELECT_MESSAGE_PAGE =
+        "SELECT m.id, m.seq, s.name AS sender_name, m.message_text, m.message_json, m.message_json_packed, m.timestamp, " +
+        "m.repeat_count, m.last_timestamp " +
+        "FROM messages m LEFT JOIN senders s ON s.id = m.sender_id " +
+        "WHERE m.session_id = ? AND m.seq > ? ORDER BY m.seq LIMIT ?";
+    // Latest messages by id range rather than ORDER BY id DESC, which SQLite plans as a table scan
+    private static final String SELECT_RECENT_MESSAGE_JSON =
+        "SELECT message_json, message_json_packed FROM messages WHERE id > (SELECT MAX(id) FROM messages) - ?";
+    private static final String SELECT_UNPACKED_MESSAGE_JSON =
+        "SELECT id, message_json FROM messages WHERE id > ? AND message_json IS NOT NULL ORDER BY id LIMIT ?";
+    private static final String UPDATE_PACKED_MESSAGE_JSON =
+        "UPDATE messages SET message_json_packed = ?, message_json = NULL WHERE id = ?";
+    private static final String SELECT_SEARCH_HITS =
+        "SELECT m.id, m.session_id, s.session_name, snd.name AS sender_name, m.message_text, m.timestamp, " +
+        "snippet(messages_fts, 0, ?, ?, '…', 16) AS snippet " +
+        "FROM messages_fts " +
+        "JOIN messages m ON m.id = messages_fts.rowid " +
+        "JOIN sessions s ON s.id = m.session_id " +
+        "LEFT JOIN senders snd ON snd.id = m.sender_id " +
+        "WHERE messages_fts MATCH ?";
+    private static final String SEARCH_ORDER = " ORDER BY rank LIMIT ? OFFSET ?";
+    // Listing by structured field, the message text stands in for the snippet
+    private static final String SELECT_LISTED_MESSAGES =
+        "SELECT m.id, m.session_id, s.session_name, snd.name AS sender_name, m.message_text, m.timestamp, " +
+        "m.message_text AS snippet " +
+        "FROM messages m " +
+        "JOIN sessions s ON s.id = m.session_id " +
+        "LEFT JOIN senders snd ON snd.id = m.sender_id " +
+        "WHERE 1";
+    private static final String LIST_ORDER = " ORDER BY m.timestamp DESC LIMIT ? OFFSET ?";
+    
+    // Thread safety: the writer connection and its statements are used by one thread at a time,
+    // reads go through the read-only connection pool and never take this lock
+    private final ReentrantLock writeLock = new ReentrantLock();
+    
+    // Messages committed per session but not yet added to sessions.message_count, guarded by writeLock
+    private final Map<Long, Integer> uncheckpointedCounts = new HashMap<>();
+    
+    // Last row written per recording session, extended instead of inserting when the next message repeats it.
+    // Guarded by writeLock, only used when repeat collapsing is enabled
+    private final boolean collapseRepeats;
+    private final Map<Long, MessageRun> lastRuns = new HashMap<>();
+    
+    // Sessions kept in memory, loaded once and updated after each committed change
+    private final SessionCatalog catalog = new SessionCatalog();
     
     // Prepared statements for performance
     private PreparedStatement insertSessionStmt;
+    private PreparedStatement selectSessionStmt;
     private PreparedStatement updateSessionStmt;
     private PreparedStatement insertMessageStmt;
+    private PreparedStatement updateRunStmt;
+    private PreparedStatement lastInsertIdStmt;
+    private PreparedStatement selectLastSeqStmt;
     private PreparedStatement updateMessageCountStmt;
+    private SenderCache senderCache;
+    private LabelCache labelCache;
+    
+    // Group commit of recorded messages
+    private final MessageWriteBehind writeBehind;
+    
+    // Compression of message JSON, and the background job repacking rows stored as plain JSON
+    private final MessageJsonCodec jsonCodec = new MessageJsonCodec();
+    private final MessageJsonRepacker jsonRepacker;
 
     private SessionDatabase() throws SQLException {
-        super("sessions.db");
+        super("sessions.db",
+              SqliteProfile.fromName(ChatLogsSettings.getInstance().database.profile),
+              ChatLogsSettings.getInstance().database.readPoolSize);
+        this.collapseRepeats = ChatLogsSettings.getInstance().database.collapseRepeats;
         prepareStatements();
+        if (ChatLogsSettings.getInstance().database.verifyQueryPlans
+                || FabricLoader.getInstance().isDevelopmentEnvironment()) {
+            verifyQueryPlans();
+        }
+        executeInTransaction(conn -> {
+            jsonCodec.loadDictionaries(conn);
+            return null;
+        });
+        catalog.load(readAllSessions());
+        
+        ChatLogsSettings.WriteBehind settings = ChatLogsSettings.getInstance().writeBehind;
+        this.writeBehind = new MessageWriteBehind(this, settings.maxBatchSize, settings.maxLatencyMs,
+                                                  settings.countCheckpointIntervalMs, settings.queueCapacity,
+                                                  OverflowPolicy.fromName(settings.overflowPolicy),
+                                                  settings.blockTimeoutMs,
+                                                  Path.of(getDatabasePath() + ".spill"));
+        this.jsonRepacker = new MessageJsonRepacker(this);
     }
 
     public static SessionDatabase getInstance() throws SQLException {
@@ -40,6 +148,23 @@ public class SessionDatabase extends AbstractDatabase {
         return instance;
     }
 
+    /**
+     * Close the database if it was opened, flushing queued messages, on client exit
+     */
+    public static void closeInstance() {
+        SessionDatabase database;
+        synchronized (INSTANCE_LOCK) {
+            database = instance;
+        }
+        if (database != null) {
+            try {
+                database.close();
+            } catch (SQLException e) {
+                ChatLogsMod.LOGGER.error("Failed to close session database", e);
+            }
+        }
+    }
+
     private void prepareStatements() throws SQLException {
         // Insert new session
         insertSessionStmt = getConnection().prepareStatement(
@@ -48,30 +173,91 @@ public class SessionDatabase extends AbstractDatabase {
             Statement.RETURN_GENERATED_KEYS
         );
         
-        // Update session end time and message count
-        updateSessionStmt = getConnection().prepareStatement(
-            "UPDATE sessions SET end_time = ?, message_count = ?, updated_at = ? WHERE id = ?"
-        );
+        // Read back a session row after a change, for the catalog
+        selectSessionStmt = getConnection().prepareStatement(SELECT_SESSION);
+        
+        // Update session end time and recount its messages
+        updateSessionStmt = getConnection().prepareStatement(UPDATE_SESSION_END);
         
         // Insert message
         insertMessageStmt = getConnection().prepareStatement(
-            "INSERT INTO messages (session_id, sender_name, message_text, message_json, timestamp, created_at) " +
-            "VALUES (?, ?, ?, ?, ?, ?)"
+            "INSERT INTO messages (session_id, sender_id, message_text, message_json_packed, timestamp, created_at, seq, " +
+            "repeat_count, last_timestamp, channel_id, rank_id, kind_id, target_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
         );
         
-        // Update message count
-        updateMessageCountStmt = getConnection().prepareStatement(
-            "UPDATE sessions SET message_count = message_count + ?, updated_at = ? WHERE id = ?"
-        );
+        // Extend a run of repeated messages
+        updateRunStmt = getConnection().prepareStatement(UPDATE_RUN);
+        lastInsertIdStmt = getConnection().prepareStatement("SELECT last_insert_rowid()");
+        
+        // Numbering of messages stored without a sequence number
+        selectLastSeqStmt = getConnection().prepareStatement(SELECT_LAST_SEQ);
+        
+        // Checkpoint message count
+        updateMessageCountStmt = getConnection().prepareStatement(UPDATE_MESSAGE_COUNT);
+        
+        // Sender name -> id
+        senderCache = new SenderCache(getConnection());
+        
+        // Channel, rank and kind values -> id
+        labelCache = new LabelCache(getConnection());
+    }
+
+    /**
+     * Check that the queries of this class are answered from indexes on the migrated schema,
+     * failing startup otherwise. Runs in development or when enabled in the settings.
+     */
+    private void verifyQueryPlans() throws SQLException {
+        StringBuilder search = new StringBuilder(SELECT_SEARCH_HITS).append(SEARCH_ORDER);
+        StringBuilder filteredSearch = new StringBuilder(SELECT_SEARCH_HITS);
+        appendSearchFilters(filteredSearch, new ArrayList<>(),
+                            new SearchFilters().session(0).sender("").between(0L, 0L));
+        filteredSearch.append(SEARCH_ORDER);
+        StringBuilder listByKind = new StringBuilder(SELECT_LISTED_MESSAGES);
+        appendSearchFilters(listByKind, new ArrayList<>(), new SearchFilters().kind("").between(0L, 0L));
+        listByKind.append(LIST_ORDER);
+        StringBuilder listByChannel = new StringBuilder(SELECT_LISTED_MESSAGES);
+        appendSearchFilters(listByChannel, new ArrayList<>(), new SearchFilters().channel("").session(0));
+        listByChannel.append(LIST_ORDER);
+        StringBuilder listByRank = new StringBuilder(SELECT_LISTED_MESSAGES);
+        appendSearchFilters(listByRank, new ArrayList<>(), new SearchFilters().rank(""));
+        listByRank.append(LIST_ORDER);
+        StringBuilder listByTarget = new StringBuilder(SELECT_LISTED_MESSAGES);
+        appendSearchFilters(listByTarget, new ArrayList<>(), new SearchFilters().target("").sender(""));
+        listByTarget.append(LIST_ORDER);
+        
+        new QueryPlanVerifier()
+            .expectIndexed("session by id", SELECT_SESSION)
+            .expectIndexed("end session", UPDATE_SESSION_END)
+            .expectIndexed("delete session messages", DELETE_SESSION_MESSAGES)
+            .expectIndexed("delete session", DELETE_SESSION)
+            .expectIndexed("checkpoint message count", UPDATE_MESSAGE_COUNT)
+            .expectIndexed("find sender", SenderCache.SELECT_SENDER)
+            .expectIndexed("find label", LabelCache.SELECT_LABEL)
+            .expectIndexed("seek session by time", SELECT_FIRST_MESSAGE_AT)
+            .expectIndexed("last sequence number", SELECT_LAST_SEQ)
+            .expectIndexed("seek session by sequence number", SELECT_RUN_AT_SEQ)
+            .expectIndexed("extend run", UPDATE_RUN)
+            .expectIndexed("message page", SELECT_MESSAGE_PAGE)
+            .expectIndexed("recent message JSON", SELECT_RECENT_MESSAGE_JSON)
+            .expectIndexed("unpacked message JSON", SELECT_UNPACKED_MESSAGE_JSON)
+            .expectIndexed("repack message JSON", UPDATE_PACKED_MESSAGE_JSON)
+            .expectIndexed("search", search.toString())
+            .expectIndexed("filtered search", filteredSearch.toString())
+            .expectIndexed("list by kind", listByKind.toString())
+            .expectIndexed("list by channel", listByChannel.toString())
+            .expectIndexed("list by rank", listByRank.toString())
+            .expectIndexed("list by target", listByTarget.toString())
+            .expectFullRead("all sessions", SELECT_ALL_SESSIONS)
+            .verify(getConnection());
     }
 
     /**
      * Create a new session and return its ID
      */
     public long createSession(String sessionName, boolean isMultiplayer, String txtFilePath) throws SQLException {
-        lock.writeLock().lock();
+        writeLock.lock();
         try {
-            return executeInTransaction(conn -> {
+            SessionData session = executeInTransaction(conn -> {
                 long currentTime = System.currentTimeMillis();
                 
                 insertSessionStmt.setString(1, sessionName);
@@ -90,189 +276,743 @@ public class SessionDatabase extends AbstractDatabase {
                     if (rs.next()) {
                         long sessionId = rs.getLong(1);
                         ChatLogsMod.LOGGER.info("Created new session: {} (ID: {})", sessionName, sessionId);
-                        return sessionId;
+                        return readSession(sessionId);
                     } else {
                         throw new SQLException("Failed to create session, no ID obtained");
                     }
                 }
             });
+            catalog.put(List.of(session));
+            return session.id;
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
     /**
-     * Add a single message to a session
+     * Queue a message for the background group commit and return immediately
+     */
+    public void queueMessage(long sessionId, String senderName,
+                             String messageText, String messageJson) {
+        queueMessage(sessionId, senderName, messageText, messageJson, System.currentTimeMillis());
+    }
+
+    /**
+     * Queue a message received at the given time for the background group commit
+     */
+    public void queueMessage(long sessionId, String senderName,
+                             String messageText, String messageJson, long timestamp) {
+        queueMessage(sessionId, 0, senderName, messageText, messageJson, timestamp);
+    }
+
+    /**
+     * Queue a message with its sequence number in the session (0 to number it on insert, refused while the
+     * session is recorded). Once committed it is handed to the sink attached to the session, if any, on the
+     * same thread and in the same order.
+     */
+    public void queueMessage(long sessionId, long seq, String senderName,
+                             String messageText, String messageJson, long timestamp) {
+        queueMessage(sessionId, seq, senderName, null, MessageFields.NONE, messageText, messageJson, timestamp);
+    }
+
+    /**
+     * Queue a message with the UUID of its sender, if known, and the structured fields its sender pattern captured
+     */
+    public void queueMessage(long sessionId, long seq, String senderName, String senderUuid, MessageFields fields,
+                             String messageText, String messageJson, long timestamp) {
+        requireNumbered(sessionId, seq);
+        writeBehind.enqueue(sessionId, new MessageData(0, seq, senderName, senderUuid, fields, messageText, messageJson,
+                                                       timestamp, 1, timestamp));
+    }
+
+    /**
+     * Send the messages of a session to a second store (the text log) after each group commit
+     */
+    public void attachSink(long sessionId, CommittedMessageSink sink) {
+        writeBehind.attachSink(sessionId, sink);
+    }
+
+    /**
+     * Stop sending messages of a session to its sink, call after flushQueuedMessages to get all of them
+     */
+    public void detachSink(long sessionId) {
+        writeBehind.detachSink(sessionId);
+    }
+
+    /**
+     * Block until all queued messages have been written to the database
+     */
+    public void flushQueuedMessages() {
+        writeBehind.flush();
+    }
+
+    /**
+     * Add a single message to a session synchronously, in its own transaction.
+     * It is numbered after the last one of the session, which is refused while the session is recorded.
      */
     public void addMessage(long sessionId, String senderName, 
                           String messageText, String messageJson) throws SQLException {
-        lock.writeLock().lock();
+        requireNumbered(sessionId, 0);
+        writeLock.lock();
         try {
             executeInTransaction(conn -> {
                 long currentTime = System.currentTimeMillis();
                 
                 // Insert message
                 insertMessageStmt.setLong(1, sessionId);
-                insertMessageStmt.setString(2, senderName);
+                insertMessageStmt.setObject(2, senderCache.resolve(senderName));
                 insertMessageStmt.setString(3, messageText);
-                insertMessageStmt.setString(4, messageJson);
+                insertMessageStmt.setBytes(4, jsonCodec.encode(messageJson));
                 insertMessageStmt.setLong(5, currentTime);
                 insertMessageStmt.setLong(6, currentTime);
+                insertMessageStmt.setLong(7, readLastSeq(sessionId) + 1);
+                insertMessageStmt.setInt(8, 1);
+                insertMessageStmt.setObject(9, null);
+                insertMessageStmt.setObject(10, null);
+                insertMessageStmt.setObject(11, null);
+                insertMessageStmt.setObject(12, null);
+                insertMessageStmt.setObject(13, null);
                 insertMessageStmt.executeUpdate();
-                
-                // Update message count
-                updateMessageCountStmt.setInt(1, 1);
-                updateMessageCountStmt.setLong(2, currentTime);
-                updateMessageCountStmt.setLong(3, sessionId);
-                updateMessageCountStmt.executeUpdate();
-                
                 return null;
             });
+            uncheckpointedCounts.merge(sessionId, 1, Integer::sum);
+        } catch (SQLException e) {
+            senderCache.invalidate();
+            labelCache.invalidate();
+            throw e;
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
     /**
-     * Add multiple messages in bulk for better performance
+     * Add multiple messages in bulk for better performance.
+     * Messages without a sequence number are numbered after the last one of the session, which is
+     * refused while the session is recorded.
+     * With repeat collapsing, consecutive identical messages are stored as one row with a repeat count.
      */
     public void addMessagesBulk(long sessionId, List<MessageData> messages) throws SQLException {
         if (messages.isEmpty()) return;
+        for (MessageData msg : messages) {
+            requireNumbered(sessionId, msg.seq);
+        }
         
-        lock.writeLock().lock();
+        writeLock.lock();
         try {
-            executeInTransaction(conn -> {
+            // The first run may continue the last run stored for this session,
+            // which is only replaced once the transaction committed
+            MessageRun previous = collapseRepeats ? lastRuns.get(sessionId) : null;
+            MessageRun continued = previous != null ? previous.copy() : null;
+            
+            MessageRun last = executeInTransaction(conn -> {
                 long currentTime = System.currentTimeMillis();
+                long nextSeq = 0; // Read when first needed
                 
-                // Batch insert messages
+                // Fold repeats into runs
+                List<MessageRun> runs = new ArrayList<>();
+                MessageRun current = continued;
                 for (MessageData msg : messages) {
+                    if (msg.seq <= 0) {
+                        if (nextSeq == 0) {
+                            nextSeq = readLastSeq(sessionId) + 1;
+                        }
+                        msg = msg.withSeq(nextSeq++);
+                    }
+                    if (current != null && current.isRepeatedBy(msg)) {
+                        current.extend(msg);
+                    } else {
+                        current = new MessageRun(msg);
+                        runs.add(current);
+                    }
+                }
+                
+                if (continued != null && continued.added > 0) {
+                    updateRunStmt.setInt(1, continued.added);
+                    updateRunStmt.setLong(2, continued.lastTimestamp);
+                    updateRunStmt.setLong(3, continued.id);
+                    updateRunStmt.executeUpdate();
+                }
+                
+                // Batch insert messages
+                for (MessageRun run : runs) {
+                    MessageData msg = run.first;
                     insertMessageStmt.setLong(1, sessionId);
-                    insertMessageStmt.setString(2, msg.senderName);
+                    insertMessageStmt.setObject(2, senderCache.resolve(msg.senderName, msg.senderUuid));
                     insertMessageStmt.setString(3, msg.messageText);
-                    insertMessageStmt.setString(4, msg.messageJson);
+                    insertMessageStmt.setBytes(4, jsonCodec.encode(msg.messageJson));
                     insertMessageStmt.setLong(5, msg.timestamp);
                     insertMessageStmt.setLong(6, currentTime);
+                    insertMessageStmt.setLong(7, msg.seq);
+                    insertMessageStmt.setInt(8, run.count);
+                    insertMessageStmt.setObject(9, run.count > 1 ? run.lastTimestamp : null);
+                    insertMessageStmt.setObject(10, labelCache.resolve(LabelCache.CHANNEL, msg.fields.channel()));
+                    insertMessageStmt.setObject(11, labelCache.resolve(LabelCache.RANK, msg.fields.rank()));
+                    insertMessageStmt.setObject(12, labelCache.resolve(LabelCache.KIND, msg.fields.kind()));
+                    insertMessageStmt.setObject(13, senderCache.resolve(msg.fields.target()));
                     insertMessageStmt.addBatch();
                 }
-                insertMessageStmt.executeBatch();
+                if (!runs.isEmpty()) {
+                    insertMessageStmt.executeBatch();
+                    if (collapseRepeats) {
+                        // The last run is the last row inserted (FTS trigger inserts do not count)
+                        try (ResultSet rs = lastInsertIdStmt.executeQuery()) {
+                            current.id = rs.next() ? rs.getLong(1) : 0;
+                        }
+                    }
+                }
                 
-                // Update message count
-                updateMessageCountStmt.setInt(1, messages.size());
-                updateMessageCountStmt.setLong(2, currentTime);
-                updateMessageCountStmt.setLong(3, sessionId);
-                updateMessageCountStmt.executeUpdate();
+                ChatLogsMod.LOGGER.debug("Added {} messages to session {} in {} rows", messages.size(), sessionId, runs.size());
+                return current;
+            });
+            if (collapseRepeats) {
+                lastRuns.put(sessionId, last);
+            }
+            uncheckpointedCounts.merge(sessionId, messages.size(), Integer::sum);
+        } catch (SQLException e) {
+            senderCache.invalidate();
+            labelCache.invalidate();
+            throw e;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * A recorded session numbers its messages when they are captured, ahead of what is committed: a message
+     * numbered after the last stored one could take a number already given to one still queued, and the
+     * cursor paging by seq would skip one of the two
+     */
+    private void requireNumbered(long sessionId, long seq) {
+        if (seq <= 0 && writeBehind.isRecorded(sessionId)) {
+            throw new IllegalStateException("Session " + sessionId + " is being recorded, its messages need a sequence number");
+        }
+    }
+
+    /**
+     * Last sequence number of a session on the writer connection, inside the current transaction
+     */
+    private long readLastSeq(long sessionId) throws SQLException {
+        selectLastSeqStmt.setLong(1, sessionId);
+        try (ResultSet rs = selectLastSeqStmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Persist the message counts accumulated since the last checkpoint.
+     * Counts are kept out of the insert transactions so that recording a message
+     * does not rewrite the sessions row, endSession and crash recovery recount exactly.
+     */
+    public void checkpointMessageCounts() throws SQLException {
+        writeLock.lock();
+        try {
+            if (uncheckpointedCounts.isEmpty()) {
+                return;
+            }
+            
+            List<SessionData> updated = executeInTransaction(conn -> {
+                long currentTime = System.currentTimeMillis();
+                List<SessionData> sessions = new ArrayList<>();
                 
-                ChatLogsMod.LOGGER.debug("Added {} messages to session {}", messages.size(), sessionId);
-                return null;
+                for (Map.Entry<Long, Integer> entry : uncheckpointedCounts.entrySet()) {
+                    updateMessageCountStmt.setInt(1, entry.getValue());
+                    updateMessageCountStmt.setLong(2, currentTime);
+                    updateMessageCountStmt.setLong(3, entry.getKey());
+                    if (updateMessageCountStmt.executeUpdate() > 0) {
+                        sessions.add(readSession(entry.getKey()));
+                    }
+                }
+                return sessions;
             });
+            uncheckpointedCounts.clear();
+            catalog.put(updated);
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
     /**
-     * End a session by setting its end time
+     * End a session by setting its end time and final message count
      */
     public void endSession(long sessionId) throws SQLException {
-        lock.writeLock().lock();
+        // Queued messages must be committed before the session is closed
+        writeBehind.flush();
+        
+        writeLock.lock();
         try {
-            executeInTransaction(conn -> {
+            // The exact count replaces any pending checkpoint for this session
+            uncheckpointedCounts.remove(sessionId);
+            lastRuns.remove(sessionId);
+            
+            SessionData session = executeInTransaction(conn -> {
                 long currentTime = System.currentTimeMillis();
                 
                 updateSessionStmt.setLong(1, currentTime); // end_time
-                updateSessionStmt.setNull(2, java.sql.Types.INTEGER); // Don't update message_count here
+                updateSessionStmt.setLong(2, sessionId);   // message_count
                 updateSessionStmt.setLong(3, currentTime); // updated_at
                 updateSessionStmt.setLong(4, sessionId);
                 
                 int affectedRows = updateSessionStmt.executeUpdate();
                 if (affectedRows > 0) {
                     ChatLogsMod.LOGGER.info("Ended session: {}", sessionId);
+                    return readSession(sessionId);
                 } else {
                     ChatLogsMod.LOGGER.warn("Failed to end session: {} (not found)", sessionId);
+                    return null;
                 }
-                return null;
             });
+            if (session != null) {
+                catalog.put(List.of(session));
+            }
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
     /**
-     * Get all sessions ordered by start time (newest first)
+     * Delete an ended session and all of its messages
      */
-    public List<SessionData> getAllSessions() throws SQLException {
-        lock.readLock().lock();
+    public void deleteSession(long sessionId) throws SQLException {
+        SessionData existing = catalog.getSession(sessionId);
+        if (existing != null && existing.endTime == 0) {
+            throw new SQLException("Cannot delete session " + sessionId + " while it is still recording");
+        }
+        
+        writeBehind.flush();
+        
+        writeLock.lock();
         try {
-            return executeInTransaction(conn -> {
-                List<SessionData> sessions = new ArrayList<>();
-                String query = "SELECT * FROM sessions ORDER BY start_time DESC";
+            uncheckpointedCounts.remove(sessionId);
+            
+            int deletedMessages = executeInTransaction(conn -> {
+                int messages;
+                try (PreparedStatement stmt = conn.prepareStatement(DELETE_SESSION_MESSAGES)) {
+                    stmt.setLong(1, sessionId);
+                    messages = stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(DELETE_SESSION)) {
+                    stmt.setLong(1, sessionId);
+                    stmt.executeUpdate();
+                }
+                return messages;
+            });
+            catalog.remove(sessionId);
+            ChatLogsMod.LOGGER.info("Deleted session {} and its {} messages", sessionId, deletedMessages);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Get all sessions ordered by start time (newest first).
+     * Served from the in-memory catalog, the returned list is an immutable snapshot.
+     */
+    public List<SessionData> getAllSessions() {
+        return catalog.getSessions();
+    }
+
+    /**
+     * Get a session by id from the in-memory catalog, or null if it does not exist
+     */
+    public SessionData getSession(long sessionId) {
+        return catalog.getSession(sessionId);
+    }
+
+    private List<SessionData> readAllSessions() throws SQLException {
+        return executeRead(conn -> {
+            List<SessionData> sessions = new ArrayList<>();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(SELECT_ALL_SESSIONS)) {
                 
-                try (Statement stmt = conn.createStatement();
-                     ResultSet rs = stmt.executeQuery(query)) {
-                    
+                while (rs.next()) {
+                    sessions.add(toSessionData(rs));
+                }
+            }
+            
+            return sessions;
+        });
+    }
+
+    /**
+     * Read a session row on the writer connection, within the current transaction
+     */
+    private SessionData readSession(long sessionId) throws SQLException {
+        selectSessionStmt.setLong(1, sessionId);
+        try (ResultSet rs = selectSessionStmt.executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("Session " + sessionId + " not found");
+            }
+            return toSessionData(rs);
+        }
+    }
+
+    private static SessionData toSessionData(ResultSet rs) throws SQLException {
+        return new SessionData(
+            rs.getLong("id"),
+            rs.getString("session_name"),
+            rs.getLong("start_time"),
+            rs.getLong("end_time"),
+            rs.getBoolean("is_multiplayer"),
+            rs.getString("txt_file_path"),
+            rs.getInt("message_count")
+        );
+    }
+
+    /**
+     * Get all messages of a session as a list.
+     * Prefer openMessageCursor for large sessions, this keeps every message in memory.
+     */
+    public List<MessageData> getMessagesForSession(long sessionId) throws SQLException {
+        List<MessageData> messages = new ArrayList<>();
+        try {
+            openMessageCursor(sessionId, 0, MessageCursor.DEFAULT_FETCH_SIZE).forEachRemaining(messages::add);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw e;
+        }
+        return messages;
+    }
+
+    /**
+     * Stream the messages of a session in sequence order, starting after the given sequence number
+     * (0 for the beginning), fetching fetchSize messages per query
+     */
+    public MessageCursor openMessageCursor(long sessionId, long afterSeq, int fetchSize) {
+        return new MessageCursor(this, sessionId, afterSeq, fetchSize);
+    }
+
+    /**
+     * Stream the messages of a session starting with the first one received at or after the given time.
+     * The time only picks the starting point, messages then follow in sequence order.
+     */
+    public MessageCursor openMessageCursorAt(long sessionId, long fromTimestamp, int fetchSize) throws SQLException {
+        long firstSeq = executeRead(conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT_FIRST_MESSAGE_AT)) {
+                stmt.setLong(1, sessionId);
+                stmt.setLong(2, fromTimestamp);
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : Long.MAX_VALUE;
+                }
+            }
+        });
+        return new MessageCursor(this, sessionId, firstSeq - 1, fetchSize);
+    }
+
+    /**
+     * Stream the messages of a session numbered after the given sequence number, used by crash
+     * recovery to replay what the text log is missing. The first row may be a run that started
+     * at or before afterSeq, expanding it and skipping up to afterSeq is left to the caller.
+     */
+    public MessageCursor openMessageCursorAfterSeq(long sessionId, long afterSeq, int fetchSize) throws SQLException {
+        long startSeq = executeRead(conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT_RUN_AT_SEQ)) {
+                stmt.setLong(1, sessionId);
+                stmt.setLong(2, afterSeq);
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    // No row at or before afterSeq: everything is after it
+                    return rs.next() ? rs.getLong(1) : 1L;
+                }
+            }
+        });
+        return new MessageCursor(this, sessionId, startSeq - 1, fetchSize);
+    }
+
+    /**
+     * Highest sequence number committed for a session, 0 if none: how far SQLite got in its ingest stream
+     */
+    public long getLastStoredSeq(long sessionId) throws SQLException {
+        return executeRead(conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT_LAST_SEQ)) {
+                stmt.setLong(1, sessionId);
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetch the next page of a cursor: up to limit messages with a sequence number greater than afterSeq
+     */
+    void fetchMessagePage(long sessionId, long afterSeq, int limit, List<MessageData> page) throws SQLException {
+        executeRead(conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT_MESSAGE_PAGE)) {
+                stmt.setLong(1, sessionId);
+                stmt.setLong(2, afterSeq);
+                stmt.setInt(3, limit);
+                
+                try (ResultSet rs = stmt.executeQuery()) {
                     while (rs.next()) {
-                        SessionData session = new SessionData(
+                        page.add(new MessageData(
                             rs.getLong("id"),
-                            rs.getString("session_name"),
-                            rs.getLong("start_time"),
-                            rs.getLong("end_time"),
-                            rs.getBoolean("is_multiplayer"),
-                            rs.getString("txt_file_path"),
-                            rs.getInt("message_count")
-                        );
-                        sessions.add(session);
+                            rs.getLong("seq"),
+                            rs.getString("sender_name"),
+                            rs.getString("message_text"),
+                            readMessageJson(rs),
+                            rs.getLong("timestamp"),
+                            rs.getInt("repeat_count"),
+                            rs.getLong("last_timestamp")
+                        ));
                     }
                 }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Read the JSON of a message row, whichever form it is stored in
+     */
+    private String readMessageJson(ResultSet rs) throws SQLException {
+        byte[] packed = rs.getBytes("message_json_packed");
+        return packed != null ? jsonCodec.decode(packed) : rs.getString("message_json");
+    }
+
+    /**
+     * Train a dictionary on recent messages if only the built-in one exists and enough
+     * messages were recorded. Returns true if a new dictionary was stored.
+     */
+    boolean trainMessageJsonDictionaryIfNeeded(int minSamples, int maxSamples) throws SQLException {
+        if (jsonCodec.getCurrentDictionaryId() != MessageJsonCodec.BUILTIN_DICTIONARY_ID) {
+            return false;
+        }
+        
+        List<String> samples = executeRead(conn -> {
+            List<String> recent = new ArrayList<>();
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT_RECENT_MESSAGE_JSON)) {
+                stmt.setInt(1, maxSamples);
                 
-                return sessions;
-            });
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        String json = readMessageJson(rs);
+                        if (json != null) {
+                            recent.add(json);
+                        }
+                    }
+                }
+            }
+            return recent;
+        });
+        
+        if (samples.size() < minSamples) {
+            return false;
+        }
+        
+        byte[] dictionary = MessageJsonCodec.trainDictionary(
+            jsonCodec.getDictionary(MessageJsonCodec.BUILTIN_DICTIONARY_ID), samples);
+        
+        writeLock.lock();
+        try {
+            int id = executeInTransaction(conn -> jsonCodec.addDictionary(conn, dictionary, samples.size()));
+            ChatLogsMod.LOGGER.info("Trained message JSON dictionary {} ({} bytes) on {} messages",
+                                  id, dictionary.length, samples.size());
         } finally {
-            lock.readLock().unlock();
+            writeLock.unlock();
         }
+        return true;
     }
 
     /**
-     * Get messages for a specific session
+     * Repack up to batchSize rows still stored as plain JSON, starting after the given id.
+     * Returns the last id processed, or -1 once no such row is left.
      */
-    public List<MessageData> getMessagesForSession(long sessionId) throws SQLException {
-        lock.readLock().lock();
+    long repackMessageJsonBatch(long afterMessageId, int batchSize) throws SQLException {
+        writeLock.lock();
         try {
             return executeInTransaction(conn -> {
-                List<MessageData> messages = new ArrayList<>();
-                String query = "SELECT * FROM messages WHERE session_id = ? ORDER BY timestamp ASC";
-                
-                try (PreparedStatement stmt = conn.prepareStatement(query)) {
-                    stmt.setLong(1, sessionId);
+                long lastId = -1;
+                try (PreparedStatement select = conn.prepareStatement(SELECT_UNPACKED_MESSAGE_JSON);
+                     PreparedStatement stmt = conn.prepareStatement(UPDATE_PACKED_MESSAGE_JSON)) {
+                    select.setLong(1, afterMessageId);
+                    select.setInt(2, batchSize);
                     
-                    try (ResultSet rs = stmt.executeQuery()) {
+                    try (ResultSet rs = select.executeQuery()) {
                         while (rs.next()) {
-                            MessageData message = new MessageData(
-                                rs.getString("sender_name"),
-                                rs.getString("message_text"),
-                                rs.getString("message_json"),
-                                rs.getLong("timestamp")
-                            );
-                            messages.add(message);
+                            lastId = rs.getLong("id");
+                            stmt.setBytes(1, jsonCodec.encode(rs.getString("message_json")));
+                            stmt.setLong(2, lastId);
+                            stmt.addBatch();
                         }
                     }
+                    stmt.executeBatch();
                 }
-                
-                return messages;
+                return lastId;
             });
         } finally {
-            lock.readLock().unlock();
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Full-text search over all messages, best matches first (BM25).
+     * Every whitespace-separated word of the query must appear in the message,
+     * a trailing '*' turns a word into a prefix search.
+     */
+    public List<SearchHit> searchMessages(String query, SearchFilters filters, int limit, int offset) throws SQLException {
+        String ftsQuery = toFtsQuery(query);
+        if (ftsQuery.isEmpty()) {
+            return new ArrayList<>();
+        }
+        SearchFilters activeFilters = filters != null ? filters : new SearchFilters();
+        
+        StringBuilder sql = new StringBuilder(SELECT_SEARCH_HITS);
+        List<Object> parameters = new ArrayList<>();
+        parameters.add(SearchHit.HIGHLIGHT_START);
+        parameters.add(SearchHit.HIGHLIGHT_END);
+        parameters.add(ftsQuery);
+        appendSearchFilters(sql, parameters, activeFilters);
+        sql.append(SEARCH_ORDER);
+        parameters.add(limit);
+        parameters.add(offset);
+        
+        return readSearchHits(sql.toString(), parameters);
+    }
+
+    /**
+     * Messages having the given structured fields, newest first, without a text query.
+     * At least one of channel, rank, target or kind must be set: the listing is then a range
+     * scan of that field's index ("party chat last week").
+     */
+    public List<SearchHit> listMessages(SearchFilters filters, int limit, int offset) throws SQLException {
+        if (filters == null || !filters.hasFieldFilter()) {
+            throw new IllegalArgumentException("Listing messages needs a channel, rank, target or kind filter");
+        }
+        
+        StringBuilder sql = new StringBuilder(SELECT_LISTED_MESSAGES);
+        List<Object> parameters = new ArrayList<>();
+        appendSearchFilters(sql, parameters, filters);
+        sql.append(LIST_ORDER);
+        parameters.add(limit);
+        parameters.add(offset);
+        
+        return readSearchHits(sql.toString(), parameters);
+    }
+
+    private List<SearchHit> readSearchHits(String sql, List<Object> parameters) throws SQLException {
+        return executeRead(conn -> {
+            List<SearchHit> hits = new ArrayList<>();
+            
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < parameters.size(); i++) {
+                    stmt.setObject(i + 1, parameters.get(i));
+                }
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        hits.add(new SearchHit(
+                            rs.getLong("id"),
+                            rs.getLong("session_id"),
+                            rs.getString("session_name"),
+                            rs.getString("sender_name"),
+                            rs.getString("message_text"),
+                            rs.getString("snippet"),
+                            rs.getLong("timestamp")
+                        ));
+                    }
+                }
+            }
+            
+            return hits;
+        });
+    }
+
+    /**
+     * Append the WHERE conditions of the non-null filters and their parameters
+     */
+    private static void appendSearchFilters(StringBuilder sql, List<Object> parameters, SearchFilters filters) {
+        if (filters.sessionId != null) {
+            sql.append(" AND m.session_id = ?");
+            parameters.add(filters.sessionId);
+        }
+        if (filters.senderName != null) {
+            sql.append(" AND m.sender_id = (SELECT id FROM senders WHERE name = ?)");
+            parameters.add(filters.senderName);
+        }
+        if (filters.fromTime != null) {
+            sql.append(" AND m.timestamp >= ?");
+            parameters.add(filters.fromTime);
+        }
+        if (filters.toTime != null) {
+            sql.append(" AND m.timestamp < ?");
+            parameters.add(filters.toTime);
+        }
+        if (filters.channel != null) {
+            sql.append(" AND m.channel_id = (SELECT id FROM message_labels WHERE field = 'channel' AND value = ?)");
+            parameters.add(filters.channel);
+        }
+        if (filters.rank != null) {
+            sql.append(" AND m.rank_id = (SELECT id FROM message_labels WHERE field = 'rank' AND value = ?)");
+            parameters.add(filters.rank);
+        }
+        if (filters.kind != null) {
+            sql.append(" AND m.kind_id = (SELECT id FROM message_labels WHERE field = 'kind' AND value = ?)");
+            parameters.add(filters.kind.toLowerCase(Locale.ROOT));
+        }
+        if (filters.target != null) {
+            sql.append(" AND m.target_id = (SELECT id FROM senders WHERE name = ?)");
+            parameters.add(filters.target);
         }
     }
 
+    /**
+     * Turn free user input into an FTS5 query: each word is quoted so that
+     * FTS5 operators and punctuation in chat text cannot cause syntax errors
+     */
+    private static String toFtsQuery(String query) {
+        if (query == null) {
+            return "";
+        }
+        
+        StringBuilder fts = new StringBuilder();
+        for (String word : query.trim().split("\\s+")) {
+            boolean prefix = word.endsWith("*");
+            if (prefix) {
+                word = word.substring(0, word.length() - 1);
+            }
+            if (word.isEmpty()) {
+                continue;
+            }
+            
+            if (fts.length() > 0) {
+                fts.append(' ');
+            }
+            fts.append('"').append(word.replace("\"", "\"\"")).append('"');
+            if (prefix) {
+                fts.append('*');
+            }
+        }
+        return fts.toString();
+    }
+
     @Override
     public void close() throws SQLException {
-        lock.writeLock().lock();
+        // Drain queued messages first, the writer thread needs the lock to commit them
+        jsonRepacker.shutdown();
+        writeBehind.shutdown();
+        try {
+            checkpointMessageCounts();
+        } catch (SQLException e) {
+            ChatLogsMod.LOGGER.error("Failed to checkpoint message counts", e);
+        }
+        
+        writeLock.lock();
         try {
             // Close prepared statements
             if (insertSessionStmt != null) insertSessionStmt.close();
+            if (selectSessionStmt != null) selectSessionStmt.close();
             if (updateSessionStmt != null) updateSessionStmt.close();
             if (insertMessageStmt != null) insertMessageStmt.close();
+            if (updateRunStmt != null) updateRunStmt.close();
+            if (lastInsertIdStmt != null) lastInsertIdStmt.close();
+            if (selectLastSeqStmt != null) selectLastSeqStmt.close();
             if (updateMessageCountStmt != null) updateMessageCountStmt.close();
+            if (senderCache != null) senderCache.close();
+            if (labelCache != null) labelCache.close();
             
             // Close database connection
             super.close();
@@ -281,7 +1021,7 @@ public class SessionDatabase extends AbstractDatabase {
                 instance = null;
             }
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
@@ -308,17 +1048,206 @@ public class SessionDatabase extends AbstractDatabase {
     }
 
     public static class MessageData {
+        public final long id; // 0 until the message is stored
+        public final long seq; // Position in the session, assigned at capture; 0 until numbered
         public final String senderName;
+        public final String senderUuid; // Known at ingest when the message components name it, null otherwise
+        public final MessageFields fields; // Captured at ingest, NONE when read back from the database
         public final String messageText;
         public final String messageJson;
-        public final long timestamp;
+        public final long timestamp; // First message of a run
+        public final int repeatCount; // 1 unless this row stands for a run of identical messages
+        public final long lastTimestamp; // Last message of a run, equal to timestamp otherwise
 
         public MessageData(String senderName, String messageText, 
                           String messageJson, long timestamp) {
+            this(0, 0, senderName, messageText, messageJson, timestamp);
+        }
+
+        public MessageData(long id, String senderName, String messageText,
+                          String messageJson, long timestamp) {
+            this(id, 0, senderName, messageText, messageJson, timestamp);
+        }
+
+        public MessageData(long id, long seq, String senderName, String messageText,
+                          String messageJson, long timestamp) {
+            this(id, seq, senderName, messageText, messageJson, timestamp, 1, timestamp);
+        }
+
+        public MessageData(long id, long seq, String senderName, String messageText,
+                          String messageJson, long timestamp, int repeatCount, long lastTimestamp) {
+            this(id, seq, senderName, null, MessageFields.NONE, messageText, messageJson, timestamp, repeatCount, lastTimestamp);
+        }
+
+        public MessageData(long id, long seq, String senderName, String senderUuid, MessageFields fields, String messageText,
+                          String messageJson, long timestamp, int repeatCount, long lastTimestamp) {
+            this.id = id;
+            this.seq = seq;
             this.senderName = senderName;
+            this.senderUuid = senderUuid;
+            this.fields = fields != null ? fields : MessageFields.NONE;
             this.messageText = messageText;
             this.messageJson = messageJson;
             this.timestamp = timestamp;
+            this.repeatCount = Math.max(1, repeatCount);
+            this.lastTimestamp = repeatCount > 1 && lastTimestamp > 0 ? lastTimestamp : timestamp;
+        }
+
+        /**
+         * Copy numbered with the given sequence number
+         */
+        public MessageData withSeq(long seq) {
+            return new MessageData(id, seq, senderName, senderUuid, fields, messageText, messageJson, timestamp, repeatCount, lastTimestamp);
+        }
+
+        public boolean isRun() {
+            return repeatCount > 1;
+        }
+
+        /**
+         * The individual messages of a run, for viewers showing it expanded. Only the first and last
+         * times were stored, the ones in between are spread evenly.
+         */
+        public List<MessageData> expandRun() {
+            if (!isRun()) {
+                return List.of(this);
+            }
+            List<MessageData> expanded = new ArrayList<>(repeatCount);
+            for (int i = 0; i < repeatCount; i++) {
+                long time = timestamp + (lastTimestamp - timestamp) * i / (repeatCount - 1);
+                expanded.add(new MessageData(id, seq > 0 ? seq + i : 0, senderName, senderUuid, fields, messageText, messageJson,
+                                             time, 1, time));
+            }
+            return expanded;
+        }
+    }
+
+    /**
+     * Row being written for consecutive identical messages of a session: same encoded Text
+     * (compared by hash, then content), same sender and following sequence numbers
+     */
+    private static final class MessageRun {
+        final MessageData first;
+        final int jsonHash;
+        long id; // Once stored
+        int count = 1;
+        int added = 0; // Repeats not stored yet when continuing a stored run
+        long lastSeq;
+        long lastTimestamp;
+
+        MessageRun(MessageData first) {
+            this.first = first;
+            this.jsonHash = first.messageJson != null ? first.messageJson.hashCode() : 0;
+            this.lastSeq = first.seq;
+            this.lastTimestamp = first.timestamp;
+        }
+
+        MessageRun copy() {
+            MessageRun copy = new MessageRun(first);
+            copy.id = id;
+            copy.count = count;
+            copy.lastSeq = lastSeq;
+            copy.lastTimestamp = lastTimestamp;
+            return copy;
+        }
+
+        boolean isRepeatedBy(MessageData message) {
+            // Numbering without gaps keeps seq + repeat_count - 1 exact for crash recovery
+            return message.seq > 0 && message.seq == lastSeq + 1
+                && message.messageJson != null && message.messageJson.hashCode() == jsonHash
+                && message.messageJson.equals(first.messageJson)
+                && Objects.equals(message.senderName, first.senderName)
+                && Objects.equals(message.senderUuid, first.senderUuid)
+                && message.fields.equals(first.fields);
+        }
+
+        void extend(MessageData message) {
+            count++;
+            added++;
+            lastSeq = message.seq;
+            lastTimestamp = message.timestamp;
+        }
+    }
+
+    /**
+     * Optional restrictions for searchMessages, null fields are ignored
+     */
+    public static class SearchFilters {
+        public Long sessionId;
+        public String senderName;
+        public Long fromTime; // Inclusive, epoch millis
+        public Long toTime;   // Exclusive, epoch millis
+        public String channel;
+        public String rank;
+        public String target; // Player a whisper was sent to
+        public String kind;   // Lower case: whisper, party, global...
+
+        public SearchFilters session(long sessionId) {
+            this.sessionId = sessionId;
+            return this;
+        }
+
+        public SearchFilters sender(String senderName) {
+            this.senderName = senderName;
+            return this;
+        }
+
+        public SearchFilters between(Long fromTime, Long toTime) {
+            this.fromTime = fromTime;
+            this.toTime = toTime;
+            return this;
+        }
+
+        public SearchFilters channel(String channel) {
+            this.channel = channel;
+            return this;
+        }
+
+        public SearchFilters rank(String rank) {
+            this.rank = rank;
+            return this;
+        }
+
+        public SearchFilters target(String target) {
+            this.target = target;
+            return this;
+        }
+
+        public SearchFilters kind(String kind) {
+            this.kind = kind;
+            return this;
+        }
+
+        /**
+         * Whether a structured field is filtered, which listMessages needs to use an index
+         */
+        public boolean hasFieldFilter() {
+            return channel != null || rank != null || target != null || kind != null;
+        }
+    }
+
+    public static class SearchHit {
+        // Markers around matched words in the snippet
+        public static final String HIGHLIGHT_START = "«";
+        public static final String HIGHLIGHT_END = "»";
+
+        public final long messageId;
+        public final long sessionId;
+        public final String sessionName;
+        public final String senderName;
+        public final String messageText;
+        public final String snippet;
+        public final long timestamp;
+
+        public SearchHit(long messageId, long sessionId, String sessionName, String senderName,
+                         String messageText, String snippet, long timestamp) {
+            this.messageId = messageId;
+            this.sessionId = sessionId;
+            this.sessionName = sessionName;
+            this.senderName = senderName;
+            this.messageText = messageText;
+            this.snippet = snippet;
+            this.timestamp = timestamp;
         }
     }
-}
\ No newline at end of file
+}
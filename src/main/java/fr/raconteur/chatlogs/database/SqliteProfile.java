@@ -0,0 +1,76 @@
+package fr.raconteur.chatlogs.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * PRAGMA presets applied to every SQLite connection when it is opened.
+ * page_size only takes effect on a database that has no tables yet.
+ */
+public enum SqliteProfile {
+    /** Rollback journal and a full fsync per commit: the SQLite defaults */
+    SAFE("DELETE", "FULL", 0L, -2_000, "DEFAULT", 4096),
+    /** WAL with fsync only at checkpoints: no corruption on crash, the last commits may be lost on power failure */
+    BALANCED("WAL", "NORMAL", 64L * 1024 * 1024, -16_000, "MEMORY", 4096),
+    /** WAL without fsync and a larger page cache, for fast disks or throwaway instances */
+    FAST("WAL", "OFF", 256L * 1024 * 1024, -64_000, "MEMORY", 8192);
+
+    public final String journalMode;
+    public final String synchronous;
+    public final long mmapSize;
+    public final int cacheSize; // Negative values are KiB, positive values are pages
+    public final String tempStore;
+    public final int pageSize;
+
+    SqliteProfile(String journalMode, String synchronous, long mmapSize,
+                  int cacheSize, String tempStore, int pageSize) {
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.mmapSize = mmapSize;
+        this.cacheSize = cacheSize;
+        this.tempStore = tempStore;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Parse a profile name from config, falling back to BALANCED
+     */
+    public static SqliteProfile fromName(String name) {
+        if (name != null) {
+            for (SqliteProfile profile : values()) {
+                if (profile.name().equalsIgnoreCase(name.trim())) {
+                    return profile;
+                }
+            }
+        }
+        return BALANCED;
+    }
+
+    /**
+     * Apply the profile to a connection. Must run outside of a transaction,
+     * journal_mode cannot be changed while one is open.
+     */
+    public void apply(Connection connection, boolean isNewDatabase) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            if (isNewDatabase) {
+                stmt.execute("PRAGMA page_size = " + pageSize);
+            }
+            stmt.execute("PRAGMA journal_mode = " + journalMode);
+            stmt.execute("PRAGMA synchronous = " + synchronous);
+        }
+        applyToReader(connection);
+    }
+
+    /**
+     * Apply the per-connection part of the profile. journal_mode is persistent
+     * and synchronous only matters to the writer, so readers just need the caches.
+     */
+    public void applyToReader(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA mmap_size = " + mmapSize);
+            stmt.execute("PRAGMA cache_size = " + cacheSize);
+            stmt.execute("PRAGMA temp_store = " + tempStore);
+        }
+    }
+}
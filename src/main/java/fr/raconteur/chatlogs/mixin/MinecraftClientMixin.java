@@ -5,7 +5,9 @@ import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import fr.raconteur.chatlogs.ChatLogsExecutor;
 import fr.raconteur.chatlogs.ChatLogsMod;
+import fr.raconteur.chatlogs.database.SessionDatabase;
 import fr.raconteur.chatlogs.session.SimpleSessionRecorder;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.resource.ResourcePackManager;
@@ -14,6 +16,8 @@ import net.minecraft.world.level.storage.LevelStorage;
 
 @Mixin(MinecraftClient.class)
 public abstract class MinecraftClientMixin {
+	private static final long DRAIN_TIMEOUT_MS = 10_000;
+	
 	@Inject(
 			method = "disconnect(Lnet/minecraft/client/gui/screen/Screen;Z)V", 
 			at = @At(value = "HEAD")
@@ -29,6 +33,12 @@ public abstract class MinecraftClientMixin {
 		// End current session when client is stopping
 		ChatLogsMod.LOGGER.info("Minecraft client stopping - ending chat log session");
 		SimpleSessionRecorder.end();
+		
+		// Let background I/O finish, then stop the database writer once nothing can queue messages anymore
+		ChatLogsExecutor executor = ChatLogsExecutor.getInstance();
+		executor.drain(DRAIN_TIMEOUT_MS);
+		SessionDatabase.closeInstance();
+		executor.logMetrics();
 	}
 	
 	@Inject(
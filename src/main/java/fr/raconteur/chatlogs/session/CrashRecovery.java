@@ -4,13 +4,18 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
+import fr.raconteur.chatlogs.ChatLogsExecutor;
 import fr.raconteur.chatlogs.ChatLogsMod;
+import fr.raconteur.chatlogs.config.ChatLogsSettings;
+import fr.raconteur.chatlogs.database.MessageCursor;
 import fr.raconteur.chatlogs.database.SessionDatabase;
 
 /**
@@ -19,6 +24,33 @@ import fr.raconteur.chatlogs.database.SessionDatabase;
 public class CrashRecovery {
     private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     private static final File UNSAVED_MARKER = new File(SimpleSessionRecorder.CHATLOG_FOLDER, "unsaved.marker");
+    private static volatile ChatLogsExecutor.Task recoveryTask;
+    
+    /**
+     * Run performRecovery in the background, so that replaying logs does not hold up the game start
+     */
+    public static void startRecovery() {
+        recoveryTask = ChatLogsExecutor.getInstance()
+            .submit(ChatLogsExecutor.TaskType.RECOVERY, "ChatLog Recovery", CrashRecovery::performRecovery);
+    }
+    
+    /**
+     * Block until the recovery started by startRecovery is done, called before a new session starts
+     */
+    public static void awaitRecovery() {
+        ChatLogsExecutor.Task task = recoveryTask;
+        if (task == null || task.isDone()) {
+            return;
+        }
+        
+        ChatLogsMod.LOGGER.info("Waiting for crash recovery to finish before starting the session");
+        try {
+            task.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ChatLogsMod.LOGGER.warn("Interrupted while waiting for crash recovery");
+        }
+    }
     
     /**
      * Check for unsaved logs from previous session and handle them
@@ -47,8 +79,9 @@ public class CrashRecovery {
         
         for (String filePath : unsavedFiles) {
             File file = new File(filePath);
-            if (file.exists()) {
-                if (finalizeUnsavedLog(file)) {
+            SegmentedTextLog log = openLog(file);
+            if (log != null && log.getActiveSegment().exists()) {
+                if (recoverLog(file, log)) {
                     recovered++;
                     ChatLogsMod.LOGGER.info("  ✓ Recovered: {}", file.getName());
                 } else {
@@ -86,6 +119,97 @@ public class CrashRecovery {
         return unsavedFiles;
     }
     
+    private static SegmentedTextLog openLog(File logFile) {
+        try {
+            return SegmentedTextLog.open(logFile);
+        } catch (IOException | RuntimeException e) {
+            ChatLogsMod.LOGGER.error("Failed to read segment manifest of {}", logFile.getName(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * Replay, finalize the last segment of a crashed log and finish compressing its closed segments
+     */
+    private static boolean recoverLog(File logFile, SegmentedTextLog log) {
+        File activeSegment = log.getActiveSegment();
+        replayMissingMessages(logFile, activeSegment);
+        boolean finalized = finalizeUnsavedLog(activeSegment);
+        if (ChatLogsSettings.getInstance().recorder.compressSegments) {
+            log.compressClosedSegments();
+        }
+        return finalized;
+    }
+    
+    /**
+     * Bring a crashed log file up to date with SQLite. Its last segment is cut back to the last batch
+     * recorded in the lock file, then the messages committed after that batch are appended.
+     */
+    private static void replayMissingMessages(File logFile, File activeSegment) {
+        TextLogSink.Progress progress = TextLogSink.readProgress(new File(logFile.getPath() + ".lock"));
+        if (progress == null) {
+            return; // Nothing recorded, the file is kept as is
+        }
+        
+        try {
+            SessionDatabase db = SessionDatabase.getInstance();
+            // Spilled messages of the crashed session are committed first
+            db.flushQueuedMessages();
+            
+            SessionDatabase.SessionData session = null;
+            for (SessionDatabase.SessionData candidate : db.getAllSessions()) {
+                if (logFile.getAbsolutePath().equals(candidate.txtFilePath)) {
+                    session = candidate;
+                    break;
+                }
+            }
+            if (session == null) {
+                return;
+            }
+            
+            try (FileChannel channel = FileChannel.open(activeSegment.toPath(), StandardOpenOption.WRITE)) {
+                if (channel.size() > progress.length()) {
+                    // Part of a batch written after the last recorded one, it is replayed below
+                    channel.truncate(progress.length());
+                } else if (channel.size() < progress.length()) {
+                    ChatLogsMod.LOGGER.warn("Chat log {} is shorter than recorded, lines before the crash may be missing",
+                                            logFile.getName());
+                }
+            }
+            
+            long lastStored = db.getLastStoredSeq(session.id);
+            if (lastStored <= progress.seq()) {
+                return;
+            }
+            
+            int replayed = 0;
+            LogLineEncoder encoder = new LogLineEncoder();
+            try (TextLogChannel out = new TextLogChannel(activeSegment.toPath(), DurabilityPolicy.NONE, 0)) {
+                MessageCursor cursor = db.openMessageCursorAfterSeq(session.id, progress.seq(), MessageCursor.DEFAULT_FETCH_SIZE);
+                while (cursor.hasNext()) {
+                    // The text log has every message of a run on its own line, possibly part of it already
+                    for (SessionDatabase.MessageData message : cursor.next().expandRun()) {
+                        if (message.seq <= progress.seq()) {
+                            continue;
+                        }
+                        encoder.appendLine(message.timestamp, message.messageText);
+                        replayed++;
+                    }
+                    if (encoder.size() >= 64 * 1024) {
+                        out.write(encoder.buffer(), encoder.size());
+                        encoder.reset();
+                    }
+                }
+                out.write(encoder.buffer(), encoder.size());
+                out.force();
+            }
+            ChatLogsMod.LOGGER.info("  Replayed {} messages from the database into {} (text log at #{}, database at #{})",
+                                    replayed, logFile.getName(), progress.seq(), lastStored);
+        } catch (Exception e) {
+            ChatLogsMod.LOGGER.error("Failed to replay missing messages into {}", logFile.getName(), e);
+        }
+    }
+    
     /**
      * Finalize an unsaved log file by adding crash information
      */
@@ -163,10 +287,11 @@ public class CrashRecovery {
             for (File lockFile : lockFiles) {
                 String logFileName = lockFile.getName().replace(".lock", "");
                 File logFile = new File(SimpleSessionRecorder.CHATLOG_FOLDER, logFileName);
+                SegmentedTextLog log = openLog(logFile);
                 
-                if (logFile.exists() && !hasProperEnding(logFile)) {
+                if (log != null && log.getActiveSegment().exists() && !hasProperEnding(log.getActiveSegment())) {
                     ChatLogsMod.LOGGER.info("Found orphaned log file: {}", logFileName);
-                    finalizeUnsavedLog(logFile);
+                    recoverLog(logFile, log);
                 }
                 
                 // Clean up the lock file
@@ -0,0 +1,27 @@
+package fr.raconteur.chatlogs.session;
+
+/**
+ * When the text log is forced to the storage device
+ */
+public enum DurabilityPolicy {
+    /** Never force, the OS writes the file back when it wants: fastest, lines may be lost on power failure */
+    NONE,
+    /** Force at most once per interval while lines are being written: bounded loss window */
+    INTERVAL,
+    /** Force after every batch: nothing written is lost, one fsync per batch */
+    BATCH;
+
+    /**
+     * Parse a policy name from config, falling back to INTERVAL
+     */
+    public static DurabilityPolicy fromName(String name) {
+        if (name != null) {
+            for (DurabilityPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name.trim())) {
+                    return policy;
+                }
+            }
+        }
+        return INTERVAL;
+    }
+}
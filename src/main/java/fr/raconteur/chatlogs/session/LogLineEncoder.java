@@ -0,0 +1,137 @@
+package fr.raconteur.chatlogs.session;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * Encodes text log lines ("[yyyy-MM-dd HH:mm:ss] text\n") as UTF-8 into a reusable buffer.
+ * The timestamp prefix is rebuilt at most once per second, so encoding a line allocates
+ * nothing once the buffer has grown to the batch size. Owned by the writer thread.
+ */
+public class LogLineEncoder {
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+    private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+    private static final int PREFIX_LENGTH = 22; // "[yyyy-MM-dd HH:mm:ss] "
+
+    private final ZoneId zone;
+    private final byte[] prefix = new byte[PREFIX_LENGTH];
+    private long prefixSecond = Long.MIN_VALUE;
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public LogLineEncoder() {
+        this(ZoneId.systemDefault());
+    }
+
+    public LogLineEncoder(ZoneId zone) {
+        this.zone = zone;
+        prefix[0] = '[';
+        prefix[5] = '-';
+        prefix[8] = '-';
+        prefix[11] = ' ';
+        prefix[14] = ':';
+        prefix[17] = ':';
+        prefix[20] = ']';
+        prefix[21] = ' ';
+    }
+
+    /**
+     * Append a timestamped line for a message received at the given epoch millis
+     */
+    public void appendLine(long timestamp, String text) {
+        long second = Math.floorDiv(timestamp, 1000);
+        if (second != prefixSecond) {
+            updatePrefix(second);
+        }
+
+        ensureCapacity(PREFIX_LENGTH + 1);
+        System.arraycopy(prefix, 0, buffer, size, PREFIX_LENGTH);
+        size += PREFIX_LENGTH;
+        appendText(text);
+        buffer[size++] = '\n';
+    }
+
+    /**
+     * Append text as UTF-8, as is
+     */
+    public void appendText(String text) {
+        int length = text.length();
+        // Worst case is 3 bytes per char (a surrogate pair takes 4 bytes for 2 chars)
+        ensureCapacity(length * 3 + 1);
+
+        byte[] out = buffer;
+        int position = size;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out[position++] = (byte) c;
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                out[position++] = (byte) (0xF0 | (codePoint >> 18));
+                out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[position++] = '?'; // Unpaired surrogate, same replacement as String.getBytes
+            } else {
+                out[position++] = (byte) (0xE0 | (c >> 12));
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        size = position;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Empty the buffer, releasing it if a large batch made it grow too much
+     */
+    public void reset() {
+        size = 0;
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    private void ensureCapacity(int additional) {
+        int required = size + additional;
+        if (required > buffer.length) {
+            byte[] grown = new byte[Math.max(required, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, size);
+            buffer = grown;
+        }
+    }
+
+    private void updatePrefix(long second) {
+        ZoneOffset offset = zone.getRules().getOffset(Instant.ofEpochSecond(second));
+        LocalDateTime time = LocalDateTime.ofEpochSecond(second, 0, offset);
+
+        writeDigits(time.getYear(), 1, 4);
+        writeDigits(time.getMonthValue(), 6, 2);
+        writeDigits(time.getDayOfMonth(), 9, 2);
+        writeDigits(time.getHour(), 12, 2);
+        writeDigits(time.getMinute(), 15, 2);
+        writeDigits(time.getSecond(), 18, 2);
+        prefixSecond = second;
+    }
+
+    private void writeDigits(int value, int offset, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            prefix[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
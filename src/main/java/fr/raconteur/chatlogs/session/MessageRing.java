@@ -0,0 +1,105 @@
+package fr.raconteur.chatlogs.session;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer with any number of producers and a single consumer.
+ * Each slot carries a sequence number telling whether it is free for the producer of a
+ * given position or filled for the consumer, so offering is one CAS and never blocks.
+ */
+public class MessageRing<T> {
+    private final int mask;
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(); // Next position to claim by producers
+    private volatile long head = 0;                   // Next position to read, written by the consumer only
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public MessageRing(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element, returning false without waiting if the ring is full
+     */
+    public boolean offer(T element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    // Publishes the element to the consumer
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false; // Slot not consumed yet: full
+            }
+            // Another producer claimed this position, retry with the new tail
+        }
+    }
+
+    /**
+     * Remove the oldest element, or return null if none is ready. Consumer thread only.
+     */
+    public T poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+
+        T element = elements.get(index);
+        elements.lazySet(index, null);
+        // Hands the slot back to the producer of the next lap
+        sequences.set(index, position + mask + 1);
+        head = position + 1;
+        return element;
+    }
+
+    /**
+     * Move up to max ready elements into the list. Consumer thread only.
+     */
+    public int drainTo(List<? super T> target, int max) {
+        int count = 0;
+        while (count < max) {
+            T element = poll();
+            if (element == null) {
+                break;
+            }
+            target.add(element);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Approximate number of elements, exact when producers and consumer are idle
+     */
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,116 @@
+package fr.raconteur.chatlogs.session;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a recording session, logged when it ends.
+ * Capture times measure what the chat hook costs the client thread per message,
+ * pipeline latency is the delay from capture until the message was queued to the database
+ * write-behind, not until it is committed or in the text log.
+ * Batch sizes of the writer thread are counted in power-of-two buckets: 1, 2-3, 4-7, ...
+ */
+public class RecorderStats {
+    private final LongAdder captured = new LongAdder();
+    private final LongAdder captureNanosTotal = new LongAdder();
+    private final AtomicLong captureNanosMax = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final LongAdder processed = new LongAdder();
+    private final AtomicLong pipelineNanosMax = new AtomicLong();
+    private final AtomicLongArray batchSizes = new AtomicLongArray(11); // Last bucket is 1024+, the largest batch
+
+    public void recordCapture(long nanos) {
+        captured.increment();
+        captureNanosTotal.add(nanos);
+        if (nanos > captureNanosMax.get()) {
+            captureNanosMax.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    /**
+     * Count a message lost because the capture buffer was full, returning the total so far
+     */
+    public long recordDropped() {
+        return dropped.incrementAndGet();
+    }
+
+    public void recordProcessed(long pipelineNanos) {
+        processed.increment();
+        if (pipelineNanos > pipelineNanosMax.get()) {
+            pipelineNanosMax.accumulateAndGet(pipelineNanos, Math::max);
+        }
+    }
+
+    public void recordBatch(int size) {
+        int bucket = Math.min(31 - Integer.numberOfLeadingZeros(Math.max(1, size)), batchSizes.length() - 1);
+        batchSizes.incrementAndGet(bucket);
+    }
+
+    /**
+     * Number of batches per size bucket, bucket i holding sizes from 2^i to 2^(i+1)-1
+     */
+    public long[] getBatchSizeHistogram() {
+        long[] histogram = new long[batchSizes.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = batchSizes.get(i);
+        }
+        return histogram;
+    }
+
+    public long getCaptured() {
+        return captured.sum();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public long getMeanCaptureNanos() {
+        long count = captured.sum();
+        return count == 0 ? 0 : captureNanosTotal.sum() / count;
+    }
+
+    public long getMaxCaptureNanos() {
+        return captureNanosMax.get();
+    }
+
+    public long getMaxPipelineNanos() {
+        return pipelineNanosMax.get();
+    }
+
+    private String formatBatchSizes() {
+        StringBuilder histogram = new StringBuilder();
+        for (int i = 0; i < batchSizes.length(); i++) {
+            long count = batchSizes.get(i);
+            if (count == 0) {
+                continue;
+            }
+            if (histogram.length() > 0) {
+                histogram.append(", ");
+            }
+            int low = 1 << i;
+            int high = (1 << (i + 1)) - 1;
+            if (i == batchSizes.length() - 1) {
+                histogram.append(low).append('+');
+            } else if (low == high) {
+                histogram.append(low);
+            } else {
+                histogram.append(low).append('-').append(high);
+            }
+            histogram.append(':').append(count);
+        }
+        return histogram.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RecorderStats{captured=%d, processed=%d, dropped=%d, captureMean=%dns, captureMax=%dns, pipelineMax=%dms, batches=[%s]}",
+                             getCaptured(), getProcessed(), getDropped(), getMeanCaptureNanos(),
+                             getMaxCaptureNanos(), getMaxPipelineNanos() / 1_000_000, formatBatchSizes());
+    }
+}
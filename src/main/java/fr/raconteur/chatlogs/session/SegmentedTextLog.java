@@ -0,0 +1,236 @@
+package fr.raconteur.chatlogs.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import fr.raconteur.chatlogs.ChatLogsExecutor;
+import fr.raconteur.chatlogs.ChatLogsMod;
+
+/**
+ * Text log of a session split into segments, so that long sessions do not grow one huge file.
+ * The first segment is the &lt;base&gt;.txt file the session was created with, later ones are
+ * &lt;base&gt;.002.txt, &lt;base&gt;.003.txt... The manifest &lt;base&gt;.segments lists them in order with
+ * the sequence number of the first message each holds; without a manifest the log is the single file.
+ * <p>
+ * Segments closed by a rotation are gzipped in the background to &lt;segment&gt;.gz, the last segment
+ * stays plain text. Readers go through openReader, which handles both forms.
+ */
+public class SegmentedTextLog {
+    private static final String TEXT_SUFFIX = ".txt";
+    private static final String MANIFEST_SUFFIX = ".segments";
+    private static final String COMPRESSED_SUFFIX = ".gz";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File folder;
+    private final String baseName;
+    private final File manifestFile;
+    private final List<Segment> segments = new ArrayList<>();
+
+    private SegmentedTextLog(File baseFile) {
+        this.folder = baseFile.getAbsoluteFile().getParentFile();
+        String name = baseFile.getName();
+        this.baseName = name.endsWith(TEXT_SUFFIX) ? name.substring(0, name.length() - TEXT_SUFFIX.length()) : name;
+        this.manifestFile = new File(folder, baseName + MANIFEST_SUFFIX);
+    }
+
+    /**
+     * Open the log whose first segment is baseFile, reading its manifest if it was rotated
+     */
+    public static SegmentedTextLog open(File baseFile) throws IOException {
+        SegmentedTextLog log = new SegmentedTextLog(baseFile);
+        if (log.manifestFile.exists()) {
+            for (String line : Files.readAllLines(log.manifestFile.toPath(), StandardCharsets.UTF_8)) {
+                int separator = line.indexOf(' ');
+                if (separator > 0) {
+                    log.segments.add(new Segment(line.substring(separator + 1), Long.parseLong(line.substring(0, separator))));
+                }
+            }
+        }
+        if (log.segments.isEmpty()) {
+            log.segments.add(new Segment(baseFile.getName(), 1));
+        }
+        return log;
+    }
+
+    /**
+     * The segment being written, always plain text
+     */
+    public synchronized File getActiveSegment() {
+        return resolve(segments.get(segments.size() - 1));
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * File of the segment a rotation would start, for the caller to create before calling rotate
+     */
+    public synchronized File nextSegment() {
+        return new File(folder, String.format("%s.%03d%s", baseName, segments.size() + 1, TEXT_SUFFIX));
+    }
+
+    /**
+     * Start the segment from nextSegment, holding messages from firstSeq on. Its file must already exist:
+     * once the manifest lists it, it is the active segment. The previous one is closed from then on,
+     * the caller compresses it once it is done writing. On failure the log is left as it was.
+     */
+    public synchronized void rotate(File segment, long firstSeq) throws IOException {
+        segments.add(new Segment(segment.getName(), firstSeq));
+        try {
+            writeManifest();
+        } catch (IOException e) {
+            segments.remove(segments.size() - 1);
+            throw e;
+        }
+    }
+
+    /**
+     * Compress in the background the closed segments still in plain text: the one just rotated
+     * out, or ones left by a crash during compression
+     */
+    public synchronized void compressClosedSegments() {
+        for (int i = 0; i < segments.size() - 1; i++) {
+            if (!segments.get(i).isCompressed()) {
+                scheduleCompression(i);
+            }
+        }
+    }
+
+    /**
+     * Read the whole log as one stream of UTF-8 text, whichever segments are compressed
+     */
+    public InputStream openReader() throws IOException {
+        List<File> files = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments) {
+                files.add(resolve(segment));
+            }
+        }
+
+        List<InputStream> streams = new ArrayList<>(files.size());
+        try {
+            for (File file : files) {
+                if (!file.exists()) {
+                    ChatLogsMod.LOGGER.warn("Chat log segment {} is missing", file.getName());
+                    continue;
+                }
+                InputStream in = new FileInputStream(file);
+                try {
+                    streams.add(file.getName().endsWith(COMPRESSED_SUFFIX)
+                                ? new GZIPInputStream(in, BUFFER_SIZE)
+                                : new BufferedInputStream(in, BUFFER_SIZE));
+                } catch (IOException e) {
+                    in.close();
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            for (InputStream stream : streams) {
+                stream.close();
+            }
+            throw e;
+        }
+        Enumeration<InputStream> enumeration = Collections.enumeration(streams);
+        return new SequenceInputStream(enumeration);
+    }
+
+    private void scheduleCompression(int index) {
+        // Compression tasks run one at a time for every session, it is never urgent
+        try {
+            ChatLogsExecutor.getInstance().submit(ChatLogsExecutor.TaskType.COMPRESSION, "ChatLog Compressor", () -> compress(index));
+        } catch (RejectedExecutionException e) {
+            ChatLogsMod.LOGGER.debug("Client is stopping, chat log segment {} stays uncompressed", segments.get(index).fileName());
+        }
+    }
+
+    /**
+     * Gzip a closed segment next to it, switch the manifest to the compressed file, then delete the original
+     */
+    private void compress(int index) {
+        Segment segment;
+        synchronized (this) {
+            segment = segments.get(index);
+        }
+        if (segment.isCompressed()) {
+            return;
+        }
+
+        File source = new File(folder, segment.fileName());
+        File target = new File(folder, segment.fileName() + COMPRESSED_SUFFIX);
+        File temp = new File(folder, target.getName() + ".tmp");
+        try {
+            try (InputStream in = new FileInputStream(source);
+                 FileOutputStream file = new FileOutputStream(temp)) {
+                GZIPOutputStream out = new GZIPOutputStream(new BufferedOutputStream(file, BUFFER_SIZE), BUFFER_SIZE);
+                in.transferTo(out);
+                out.finish();
+                out.flush();
+                file.getFD().sync(); // The compressed copy must be complete before the original goes away
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            synchronized (this) {
+                segments.set(index, new Segment(target.getName(), segment.firstSeq()));
+                writeManifest();
+            }
+            ChatLogsMod.LOGGER.debug("Compressed chat log segment {} ({} -> {} bytes)",
+                                     source.getName(), source.length(), target.length());
+            if (!source.delete()) {
+                ChatLogsMod.LOGGER.warn("Failed to delete compressed chat log segment {}", source.getName());
+            }
+        } catch (IOException e) {
+            ChatLogsMod.LOGGER.error("Failed to compress chat log segment {}", source.getName(), e);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Replace the manifest atomically, so that a crash leaves either the old or the new one
+     */
+    private void writeManifest() throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        for (Segment segment : segments) {
+            manifest.append(segment.firstSeq()).append(' ').append(segment.fileName()).append('\n');
+        }
+        File temp = new File(folder, manifestFile.getName() + ".tmp");
+        Files.writeString(temp.toPath(), manifest, StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * File of a segment, falling back to the other form if a crash came between compressing and updating the manifest
+     */
+    private File resolve(Segment segment) {
+        File file = new File(folder, segment.fileName());
+        if (file.exists()) {
+            return file;
+        }
+        File other = segment.isCompressed()
+            ? new File(folder, segment.fileName().substring(0, segment.fileName().length() - COMPRESSED_SUFFIX.length()))
+            : new File(folder, segment.fileName() + COMPRESSED_SUFFIX);
+        return other.exists() ? other : file;
+    }
+
+    private record Segment(String fileName, long firstSeq) {
+        boolean isCompressed() {
+            return fileName.endsWith(COMPRESSED_SUFFIX);
+        }
+    }
+}
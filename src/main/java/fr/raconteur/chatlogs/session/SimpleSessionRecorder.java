@@ -1,6 +1,5 @@
 package fr.raconteur.chatlogs.session;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -8,21 +7,30 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import com.google.gson.JsonNull;
 import com.mojang.serialization.JsonOps;
 
+import fr.raconteur.chatlogs.ChatLogsExecutor;
 import fr.raconteur.chatlogs.ChatLogsMod;
 import fr.raconteur.chatlogs.config.ChatLogsConfig;
+import fr.raconteur.chatlogs.config.ChatLogsSettings;
+import fr.raconteur.chatlogs.config.SenderMatcher;
+import fr.raconteur.chatlogs.database.MessageFields;
 import fr.raconteur.chatlogs.database.SessionDatabase;
 import net.minecraft.text.Text;
 import net.minecraft.text.TextCodecs;
@@ -31,10 +39,17 @@ import net.minecraft.util.Util;
 /**
  * Simplified but robust session recorder that logs chat messages to plain text files
  * Features: file locking, background writing, crash recovery, error handling
+ * <p>
+ * The chat hook only numbers the message and captures it into a lock-free ring buffer. The writer thread
+ * extracts its sender and encodes its JSON, then queues it to the database write-behind, the single
+ * ordered ingest stream: it commits the messages to SQLite and then appends them to the text log.
+ * Sequence numbers, not wall-clock times, give the order of messages in the session.
  */
 public class SimpleSessionRecorder {
     private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     private static final DateTimeFormatter FILE_TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final long WRITER_STOP_TIMEOUT_MS = 5000;
     
     // Reuse the folder logic from original Session.java
     public static final File CHATLOG_FOLDER = Util.make(() -> {
@@ -72,6 +87,8 @@ public class SimpleSessionRecorder {
     });
     
     private static final File UNSAVED_MARKER = new File(CHATLOG_FOLDER, "unsaved.marker");
+    // Lock files of sessions whose writer outlived shutdown, they are not orphans
+    private static final Set<File> CLOSING_LOCK_FILES = ConcurrentHashMap.newKeySet();
     
     private static SimpleSessionRecorder current = null;
     private final String sessionName;
@@ -79,18 +96,28 @@ public class SimpleSessionRecorder {
     private final File lockFile;
     private final long startTime;
     private final long sessionId; // SQLite session ID
+    // Resolved once per config snapshot, a message only checks that the snapshot is still current
+    private ChatLogsConfig.PatternSnapshot patternSnapshot;
+    private SenderMatcher senderMatcher;
+    private final TextSenderExtractor senderExtractor = new TextSenderExtractor();
     
     // Background writing components
-    private final BlockingQueue<String> messageQueue = new LinkedBlockingQueue<>();
+    private final MessageRing<CapturedMessage> captureRing;
+    private final RecorderStats stats = new RecorderStats();
     private final AtomicBoolean running = new AtomicBoolean(true);
-    private final Thread writerThread;
-    private BufferedWriter writer;
+    private final ChatLogsExecutor.Task writerTask; // Virtual thread, it only parks and hands messages on
+    private volatile boolean writerParked = false; // Set while the writer waits, producers unpark it
+    private final AtomicLong nextSeq = new AtomicLong(1); // A gap means the capture buffer dropped messages
+    private TextLogSink textLog;
     private FileLock fileLock;
     private RandomAccessFile lockRaf;
     
     private SimpleSessionRecorder(String sessionName, boolean isMultiplayer) {
         this.sessionName = sessionName;
         this.startTime = System.currentTimeMillis();
+        this.captureRing = new MessageRing<>(ChatLogsSettings.getInstance().recorder.captureBufferSize);
+        this.patternSnapshot = ChatLogsConfig.getInstance().getSnapshot();
+        this.senderMatcher = patternSnapshot.getSenderMatcher(sessionName);
         
         // Create log file with timestamp
         String timestamp = LocalDateTime.now().format(FILE_TIMESTAMP_FORMAT);
@@ -100,8 +127,9 @@ public class SimpleSessionRecorder {
         
         // Create SQLite session
         long tempSessionId = -1;
+        SessionDatabase db;
         try {
-            SessionDatabase db = SessionDatabase.getInstance();
+            db = SessionDatabase.getInstance();
             tempSessionId = db.createSession(sessionName, isMultiplayer, this.logFile.getAbsolutePath());
             ChatLogsMod.LOGGER.info("Created SQLite session: {} (ID: {})", sessionName, tempSessionId);
         } catch (Exception e) {
@@ -113,15 +141,14 @@ public class SimpleSessionRecorder {
         // Initialize file locking and writer
         if (initializeWriter()) {
             markUnsaved();
-            this.writerThread = new Thread(this::writerLoop, "ChatLog Writer");
-            this.writerThread.setDaemon(true);
-            this.writerThread.start();
+            writeSessionStart();
+            db.attachSink(sessionId, textLog);
+            this.writerTask = ChatLogsExecutor.getInstance()
+                .submit(ChatLogsExecutor.TaskType.RECORDER, "ChatLog Writer", this::writerLoop);
             
-            // Queue session start message
-            queueSessionStart();
             ChatLogsMod.LOGGER.info("Started chat logging session: {}", fileName);
         } else {
-            this.writerThread = null;
+            this.writerTask = null;
         }
     }
     
@@ -138,8 +165,13 @@ public class SimpleSessionRecorder {
                 return false;
             }
             
-            // Initialize writer
-            this.writer = new BufferedWriter(new FileWriter(logFile, true));
+            // Initialize writer, the lock file holds how far the text log got
+            ChatLogsSettings.Recorder settings = ChatLogsSettings.getInstance().recorder;
+            this.textLog = new TextLogSink(SegmentedTextLog.open(logFile),
+                                           DurabilityPolicy.fromName(settings.durability), settings.forceIntervalMs,
+                                           settings.segmentMaxSizeMb * 1024 * 1024,
+                                           TimeUnit.HOURS.toMillis(settings.segmentMaxAgeHours),
+                                           settings.compressSegments, channel);
             return true;
             
         } catch (IOException e) {
@@ -149,72 +181,155 @@ public class SimpleSessionRecorder {
         }
     }
     
-    private void queueSessionStart() {
+    private void writeSessionStart() {
         String sessionStart = "=== Chat Log Session Started ===\n" +
                              "Session: " + sessionName + "\n" +
-                             "Start Time: " + LocalDateTime.now().format(TIMESTAMP_FORMAT) + "\n" +
+                             "Start Time: " + formatTimestamp(startTime) + "\n" +
                              "=====================================\n\n";
-        messageQueue.offer(sessionStart);
+        try {
+            textLog.writeText(sessionStart);
+        } catch (IOException e) {
+            ChatLogsMod.LOGGER.error("Error writing session start", e);
+        }
+    }
+    
+    private void writeSessionEnd() {
+        String sessionEnd = "\n=====================================\n" +
+                          "Session ended: " + LocalDateTime.now().format(TIMESTAMP_FORMAT) + "\n" +
+                          "Duration: " + formatDuration(System.currentTimeMillis() - startTime) + "\n" +
+                          "=====================================\n";
+        try {
+            textLog.writeText(sessionEnd);
+        } catch (IOException e) {
+            ChatLogsMod.LOGGER.error("Error writing session end", e);
+        }
+    }
+    
+    /**
+     * Park until a message is captured or the recorder stops. Returns false if the thread was interrupted.
+     */
+    private boolean waitForMessages() {
+        writerParked = true;
+        try {
+            // Checked after publishing the flag: a message offered before it is seen here, one offered after unparks us
+            if (captureRing.isEmpty() && running.get()) {
+                LockSupport.park(this);
+            }
+        } finally {
+            writerParked = false;
+        }
+        return !Thread.interrupted();
     }
     
     private void writerLoop() {
+        List<CapturedMessage> batch = new ArrayList<>(MAX_BATCH_SIZE);
         try {
-            while (running.get() || !messageQueue.isEmpty()) {
-                try {
-                    // Process multiple messages per cycle for better throughput
-                    List<String> messageBatch = new ArrayList<>();
-                    
-                    // Wait for at least one message
-                    String firstMessage = messageQueue.poll(100, TimeUnit.MILLISECONDS);
-                    if (firstMessage != null) {
-                        messageBatch.add(firstMessage);
-                        
-                        // Drain additional messages without waiting (up to 100 per batch)
-                        messageQueue.drainTo(messageBatch, 99);
-                        
-                        // Write all messages in batch
-                        for (String message : messageBatch) {
-                            writer.write(message);
-                        }
-                        writer.flush(); // Single flush for the entire batch
-                        
-                        if (messageBatch.size() > 1) {
-                            ChatLogsMod.LOGGER.debug("Processed batch of {} messages", messageBatch.size());
-                        }
+            while (running.get() || !captureRing.isEmpty()) {
+                // The batch takes the whole backlog, so it grows when messages arrive faster than they are written
+                int backlog = captureRing.size();
+                if (backlog == 0) {
+                    if (!waitForMessages()) {
+                        break;
                     }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                } catch (IOException e) {
-                    ChatLogsMod.LOGGER.error("Error writing to chat log", e);
-                    // Continue trying to write other messages
+                    continue;
                 }
+                
+                // No latency target here: each message is queued to the write-behind as soon as it is prepared,
+                // whose maxLatencyMs bounds how long it waits to be committed and written to the text log
+                captureRing.drainTo(batch, Math.min(backlog, MAX_BATCH_SIZE));
+                stats.recordBatch(batch.size());
+                for (CapturedMessage captured : batch) {
+                    try {
+                        processMessage(captured);
+                    } catch (RuntimeException e) {
+                        // One bad message must not end the session
+                        ChatLogsMod.LOGGER.error("Failed to record chat message", e);
+                    }
+                }
+                batch.clear();
             }
         } finally {
-            // Write session end info
-            try {
-                if (writer != null) {
-                    String sessionEnd = "\n=====================================\n" +
-                                      "Session ended: " + LocalDateTime.now().format(TIMESTAMP_FORMAT) + "\n" +
-                                      "Duration: " + formatDuration(System.currentTimeMillis() - startTime) + "\n" +
-                                      "=====================================\n";
-                    writer.write(sessionEnd);
+            ChatLogsMod.LOGGER.debug("Chat log writer stopped: {}", logFile.getName());
+        }
+    }
+    
+    /**
+     * Sender matcher of the session, resolved again if the config was reloaded, on the writer thread
+     */
+    private SenderMatcher currentSenderMatcher() {
+        ChatLogsConfig.PatternSnapshot snapshot = ChatLogsConfig.getInstance().getSnapshot();
+        if (snapshot != patternSnapshot) {
+            patternSnapshot = snapshot;
+            senderMatcher = snapshot.getSenderMatcher(sessionName);
+        }
+        return senderMatcher;
+    }
+    
+    /**
+     * Prepare one captured message, then queue it to the ingest stream, on the writer thread
+     */
+    private void processMessage(CapturedMessage captured) {
+        String messageText;
+        String senderName = null;
+        String senderUuid = null;
+        MessageFields fields = MessageFields.NONE;
+        String messageJson = null;
+        
+        try {
+            // One walk of the component tree gives the text and, most of the time, the sender with its UUID
+            messageText = senderExtractor.walk(captured.message());
+            senderName = senderExtractor.getSenderName();
+            senderUuid = senderExtractor.getSenderUuid();
+        } catch (Exception e) {
+            // A component the walk cannot handle, keep the flattened text and leave the sender to the patterns
+            ChatLogsMod.LOGGER.error("Failed to walk chat message components", e);
+            messageText = captured.message().getString();
+        }
+        
+        try {
+            // Sender patterns are only needed when the components name no sender, or to capture structured fields
+            SenderMatcher matcher = currentSenderMatcher();
+            if (senderName == null || matcher.capturesFields()) {
+                SenderMatcher.Match match = matcher.match(messageText);
+                if (match != null) {
+                    if (senderName == null) {
+                        // The components only give the UUID, of a hover naming the player the pattern matched
+                        senderName = match.sender();
+                        senderUuid = senderExtractor.uuidOf(senderName);
+                    }
+                    fields = match.fields();
                 }
-            } catch (IOException e) {
-                ChatLogsMod.LOGGER.error("Error writing session end", e);
             }
             
-            cleanup();
-            unmarkUnsaved();
-            ChatLogsMod.LOGGER.info("Chat logging session ended: {}", logFile.getName());
+            // Serialize message to JSON using TextCodecs
+            messageJson = TextCodecs.CODEC.encodeStart(JsonOps.INSTANCE, captured.message())
+                .result()
+                .orElse(JsonNull.INSTANCE)
+                .toString();
+        } catch (Exception e) {
+            ChatLogsMod.LOGGER.error("Failed to prepare chat message for storage", e);
         }
+        
+        try {
+            // Committed in batches by the database write-behind thread, which then writes the text log
+            SessionDatabase db = SessionDatabase.getInstance();
+            db.queueMessage(sessionId, captured.seq(), senderName, senderUuid, fields, messageText, messageJson, captured.timestamp());
+        } catch (Exception e) {
+            ChatLogsMod.LOGGER.error("Failed to queue chat message", e);
+        }
+        
+        stats.recordProcessed(System.nanoTime() - captured.captureNanos());
+    }
+    
+    private static String formatTimestamp(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()).format(TIMESTAMP_FORMAT);
     }
     
     private void cleanup() {
         try {
-            if (writer != null) {
-                writer.close();
-                writer = null;
+            if (textLog != null) {
+                textLog.close();
+                textLog = null;
             }
         } catch (IOException e) {
             ChatLogsMod.LOGGER.error("Error closing writer", e);
@@ -289,6 +404,9 @@ public class SimpleSessionRecorder {
             current.end();
         }
         
+        // Recovery of the previous run reads lock files and closes open sessions, it must be done first
+        CrashRecovery.awaitRecovery();
+        
         // Clean up any orphaned lock files before starting new session
         cleanupOrphanedLocks();
         
@@ -303,6 +421,9 @@ public class SimpleSessionRecorder {
         File[] lockFiles = CHATLOG_FOLDER.listFiles((dir, name) -> name.endsWith(".lock"));
         if (lockFiles != null) {
             for (File lockFile : lockFiles) {
+                if (CLOSING_LOCK_FILES.contains(lockFile.getAbsoluteFile())) {
+                    continue;
+                }
                 if (lockFile.delete()) {
                     ChatLogsMod.LOGGER.debug("Cleaned up orphaned lock file: {}", lockFile.getName());
                 }
@@ -321,54 +442,100 @@ public class SimpleSessionRecorder {
         }
     }
     
+    /**
+     * Capture a chat message, called on the client thread by the chat hook.
+     * Only the Text reference, its sequence number and the capture time are recorded, everything else is done
+     * by the writer thread.
+     */
     public void logMessage(Text message) {
-        if (!running.get() || writerThread == null) return;
-        
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
-        String messageText = message.getString();
-        String formattedMessage = String.format("[%s] %s\n", timestamp, messageText);
+        if (!running.get() || writerTask == null) return;
         
-        // Non-blocking queue offer - if queue is full, message is dropped
-        if (!messageQueue.offer(formattedMessage)) {
-            ChatLogsMod.LOGGER.warn("Chat log message queue is full, dropping message");
-        }
-        
-        // Also save to SQLite
-        try {
-            // Extract sender name using regex patterns
-            String senderName = ChatLogsConfig.getInstance().extractSenderName(sessionName, messageText);
-            
-            // Serialize message to JSON using TextCodecs
-            String messageJson = TextCodecs.CODEC.encodeStart(JsonOps.INSTANCE, message)
-                .result()
-                .orElse(JsonNull.INSTANCE)
-                .toString();
-            
-            SessionDatabase db = SessionDatabase.getInstance();
-            db.addMessage(sessionId, senderName, messageText, messageJson);
-            
-        } catch (Exception e) {
-            ChatLogsMod.LOGGER.error("Failed to save message to SQLite", e);
-            throw new RuntimeException("Critical error: Unable to save message to SQLite", e);
+        long captureNanos = System.nanoTime();
+        long seq = nextSeq.getAndIncrement();
+        if (captureRing.offer(new CapturedMessage(message, seq, captureNanos, System.currentTimeMillis()))) {
+            if (writerParked) {
+                LockSupport.unpark(writerTask.thread());
+            }
+        } else {
+            // Non-blocking offer - if the ring is full, the message is dropped
+            if (stats.recordDropped() == 1) {
+                ChatLogsMod.LOGGER.warn("Chat log capture buffer is full, dropping messages");
+            }
         }
+        stats.recordCapture(System.nanoTime() - captureNanos);
+    }
+    
+    public RecorderStats getStats() {
+        return stats;
     }
     
     /**
-     * Shutdown this recorder instance - stops the writer thread and waits for completion
+     * Shutdown this recorder instance - stops the writer thread and waits for completion.
+     * A writer still busy after the timeout (blocked by the database queue, a slow commit) keeps queueing
+     * messages: the session is then finished in the background once it is done, so that the sink stays
+     * attached and the lock file and unsaved marker are kept for crash recovery until then.
      */
     private void shutdown() {
         running.set(false);
         
-        if (writerThread != null) {
-            try {
-                writerThread.join(5000); // Wait up to 5 seconds for writer to finish
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                ChatLogsMod.LOGGER.warn("Interrupted while waiting for writer thread to finish");
-            }
+        if (writerTask == null) {
+            endSqliteSession();
+            return;
         }
         
-        // End SQLite session
+        LockSupport.unpark(writerTask.thread());
+        boolean stopped = false;
+        try {
+            stopped = writerTask.await(WRITER_STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ChatLogsMod.LOGGER.warn("Interrupted while waiting for writer thread to finish");
+        }
+        if (stopped) {
+            finishSession();
+            return;
+        }
+        
+        ChatLogsMod.LOGGER.warn("Chat log writer of {} still busy after {} ms, the session will be closed once it is done",
+                                logFile.getName(), WRITER_STOP_TIMEOUT_MS);
+        CLOSING_LOCK_FILES.add(lockFile.getAbsoluteFile());
+        try {
+            ChatLogsExecutor.getInstance().submit(ChatLogsExecutor.TaskType.RECORDER, "ChatLog Session Closer", () -> {
+                try {
+                    writerTask.await();
+                    finishSession();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    CLOSING_LOCK_FILES.remove(lockFile.getAbsoluteFile());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The client is exiting: the log is left as after a crash, recovery completes it on next start
+            ChatLogsMod.LOGGER.warn("Chat log {} left to crash recovery on next start", logFile.getName());
+        }
+    }
+    
+    /**
+     * Close the text log and the SQLite session once the writer has stopped
+     */
+    private void finishSession() {
+        // Everything queued is committed and in the text log once the flush returns
+        try {
+            SessionDatabase db = SessionDatabase.getInstance();
+            db.flushQueuedMessages();
+            db.detachSink(sessionId);
+        } catch (Exception e) {
+            ChatLogsMod.LOGGER.error("Failed to flush chat messages of session {}", sessionId, e);
+        }
+        writeSessionEnd();
+        cleanup();
+        unmarkUnsaved();
+        ChatLogsMod.LOGGER.info("Chat logging session ended: {} {}", logFile.getName(), stats);
+        endSqliteSession();
+    }
+    
+    private void endSqliteSession() {
         if (sessionId != -1) {
             try {
                 SessionDatabase db = SessionDatabase.getInstance();
@@ -394,4 +561,10 @@ public class SimpleSessionRecorder {
             return String.format("%ds", seconds);
         }
     }
+    
+    /**
+     * Snapshot taken by the chat hook: Text components are not modified once added to the chat
+     */
+    private record CapturedMessage(Text message, long seq, long captureNanos, long timestamp) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+package fr.raconteur.chatlogs.session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only writer for the text log, on a FileChannel.
+ * Encoded batches are copied into pooled direct buffers and written with a single gathering
+ * write, which avoids the temporary direct buffer the JDK would otherwise allocate per call.
+ * The file is forced to the device according to the DurabilityPolicy.
+ * Not thread-safe, used through TextLogSink.
+ */
+public class TextLogChannel implements AutoCloseable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int POOL_SIZE = 8;
+    // Direct buffers are costly to allocate, they are shared by successive sessions
+    private static final BlockingQueue<ByteBuffer> BUFFER_POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private final FileChannel channel;
+    private final DurabilityPolicy durability;
+    private final long forceIntervalNanos;
+    private ByteBuffer[] buffers = new ByteBuffer[0];
+    private long length; // Bytes in the file, including what is not forced yet
+    private long lastForce = System.nanoTime();
+    private boolean dirty = false; // Written since the last force
+
+    public TextLogChannel(Path path, DurabilityPolicy durability, long forceIntervalMs) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.durability = durability;
+        this.forceIntervalNanos = TimeUnit.MILLISECONDS.toNanos(forceIntervalMs);
+        this.length = channel.size();
+    }
+
+    /**
+     * Append length bytes of data in one gathering write, then force if the policy requires it
+     */
+    public void write(byte[] data, int length) throws IOException {
+        if (length == 0) {
+            return;
+        }
+
+        int count = (length + BUFFER_SIZE - 1) / BUFFER_SIZE;
+        acquireBuffers(count);
+        try {
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                int chunk = Math.min(BUFFER_SIZE, length - offset);
+                buffers[i].clear();
+                buffers[i].put(data, offset, chunk).flip();
+                offset += chunk;
+            }
+
+            long remaining = length;
+            while (remaining > 0) {
+                remaining -= channel.write(buffers, 0, count);
+            }
+        } finally {
+            releaseBuffers(count);
+        }
+
+        this.length += length;
+        dirty = true;
+        if (durability == DurabilityPolicy.BATCH) {
+            force();
+        } else {
+            forceIfDue();
+        }
+    }
+
+    /**
+     * Force pending writes if the interval elapsed, called while idle so that the last
+     * lines before a pause do not wait for the next batch
+     */
+    public void forceIfDue() throws IOException {
+        if (dirty && durability == DurabilityPolicy.INTERVAL && System.nanoTime() - lastForce >= forceIntervalNanos) {
+            force();
+        }
+    }
+
+    /**
+     * Time until forceIfDue has work to do, 0 if a sync is due now, or -1 if nothing is waiting for one
+     */
+    public long nanosUntilForce() {
+        if (!dirty || durability != DurabilityPolicy.INTERVAL) {
+            return -1;
+        }
+        return Math.max(0, forceIntervalNanos - (System.nanoTime() - lastForce));
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public void force() throws IOException {
+        // Set first so that a failing device is retried once per interval, not in a loop
+        lastForce = System.nanoTime();
+        channel.force(false);
+        dirty = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (dirty && durability != DurabilityPolicy.NONE) {
+                force();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void acquireBuffers(int count) {
+        if (buffers.length < count) {
+            buffers = new ByteBuffer[count];
+        }
+        for (int i = 0; i < count; i++) {
+            ByteBuffer buffer = BUFFER_POOL.poll();
+            buffers[i] = buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    }
+
+    private void releaseBuffers(int count) {
+        for (int i = 0; i < count; i++) {
+            // Buffers beyond the pool size are left to the GC
+            BUFFER_POOL.offer(buffers[i]);
+            buffers[i] = null;
+        }
+    }
+}
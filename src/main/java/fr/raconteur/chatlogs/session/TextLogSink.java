@@ -0,0 +1,203 @@
+package fr.raconteur.chatlogs.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import fr.raconteur.chatlogs.ChatLogsMod;
+import fr.raconteur.chatlogs.database.CommittedMessageSink;
+import fr.raconteur.chatlogs.database.SessionDatabase;
+
+/**
+ * Text log side of the ingest stream. Lines of committed messages are written by the database
+ * writer thread, then the sequence number and file length reached are stored at the start of
+ * the session lock file. After a crash, recovery cuts the text log back to that length and
+ * replays the following messages from SQLite, so the file ends up with each message exactly once.
+ * <p>
+ * The log is rotated to a new segment before a batch once the active one reached the size or age
+ * limit; the length stored in the lock file is the length of the active segment.
+ */
+public class TextLogSink implements CommittedMessageSink {
+    private static final int PROGRESS_SIZE = 16; // seq, then text log length
+    private static final long MIN_ROTATION_RETRY_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long MAX_ROTATION_RETRY_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final SegmentedTextLog log;
+    private final DurabilityPolicy durability;
+    private final long forceIntervalMs;
+    private final long maxSegmentBytes; // 0 for no limit
+    private final long maxSegmentAgeNanos; // 0 for no limit
+    private final boolean compressSegments;
+    private final FileChannel progressChannel;
+    private TextLogChannel channel;
+    private long segmentStart = System.nanoTime();
+    private long rotationRetryNanos = 0; // Backoff after a failed rotation, 0 once one succeeded
+    private long nextRotationAttempt = 0;
+    private final LogLineEncoder encoder = new LogLineEncoder();
+    private final ByteBuffer progress = ByteBuffer.allocate(PROGRESS_SIZE);
+    private long lastSeq = 0;
+
+    public TextLogSink(SegmentedTextLog log, DurabilityPolicy durability, long forceIntervalMs,
+                       long maxSegmentBytes, long maxSegmentAgeMs, boolean compressSegments,
+                       FileChannel progressChannel) throws IOException {
+        this.log = log;
+        this.durability = durability;
+        this.forceIntervalMs = forceIntervalMs;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxSegmentAgeMs);
+        this.compressSegments = compressSegments;
+        this.progressChannel = progressChannel;
+        this.channel = new TextLogChannel(log.getActiveSegment().toPath(), durability, forceIntervalMs);
+    }
+
+    /**
+     * Write session header or footer text
+     */
+    public synchronized void writeText(String text) throws IOException {
+        encoder.appendText(text);
+        writeEncoded();
+        recordProgress();
+    }
+
+    @Override
+    public synchronized void write(List<SessionDatabase.MessageData> messages) throws IOException {
+        if (!messages.isEmpty() && isRotationDue()) {
+            tryRotate(messages.get(0).seq);
+        }
+        for (SessionDatabase.MessageData message : messages) {
+            encoder.appendLine(message.timestamp, message.messageText);
+            lastSeq = Math.max(lastSeq, message.seq);
+        }
+        writeEncoded();
+        recordProgress();
+    }
+
+    @Override
+    public synchronized long nanosUntilSync() {
+        return channel.nanosUntilForce();
+    }
+
+    @Override
+    public synchronized void sync() throws IOException {
+        channel.forceIfDue();
+    }
+
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean isRotationDue() {
+        long now = System.nanoTime();
+        if (rotationRetryNanos > 0 && now - nextRotationAttempt < 0) {
+            return false;
+        }
+        return (maxSegmentBytes > 0 && channel.length() >= maxSegmentBytes)
+            || (maxSegmentAgeNanos > 0 && now - segmentStart >= maxSegmentAgeNanos);
+    }
+
+    /**
+     * Rotate, or keep writing in the current segment if the new one cannot be started.
+     * Failed attempts are retried with an exponential backoff rather than before every batch.
+     */
+    private void tryRotate(long firstSeq) {
+        try {
+            rotate(firstSeq);
+            rotationRetryNanos = 0;
+        } catch (IOException e) {
+            rotationRetryNanos = rotationRetryNanos == 0
+                ? MIN_ROTATION_RETRY_NANOS
+                : Math.min(rotationRetryNanos * 2, MAX_ROTATION_RETRY_NANOS);
+            nextRotationAttempt = System.nanoTime() + rotationRetryNanos;
+            ChatLogsMod.LOGGER.error("Failed to rotate chat log {}, writing on in the current segment, retrying in {} s",
+                                     log.getActiveSegment().getName(), TimeUnit.NANOSECONDS.toSeconds(rotationRetryNanos), e);
+        }
+    }
+
+    /**
+     * Continue in a new segment and close the active one, synced whatever the durability policy since it
+     * is compressed next. The new file is created before the manifest lists it, so a failure at any step
+     * before the switch leaves the current segment active.
+     */
+    private void rotate(long firstSeq) throws IOException {
+        File segment = log.nextSegment();
+        TextLogChannel next = new TextLogChannel(segment.toPath(), durability, forceIntervalMs);
+        try {
+            log.rotate(segment, firstSeq);
+        } catch (IOException e) {
+            try {
+                next.close();
+            } catch (IOException closeError) {
+                e.addSuppressed(closeError);
+            }
+            if (!segment.delete()) {
+                ChatLogsMod.LOGGER.warn("Failed to delete unused chat log segment {}", segment.getName());
+            }
+            throw e;
+        }
+
+        TextLogChannel closed = channel;
+        channel = next;
+        segmentStart = System.nanoTime();
+        ChatLogsMod.LOGGER.info("Chat log continues in segment {}", segment.getName());
+
+        // The switch is done, failures from here on must not cost the batch
+        try {
+            recordProgress(); // Lengths now refer to the new segment, the batch records it again once written
+        } catch (IOException e) {
+            ChatLogsMod.LOGGER.error("Failed to record chat log progress", e);
+        }
+        try {
+            closed.force();
+        } catch (IOException e) {
+            ChatLogsMod.LOGGER.error("Failed to sync closed chat log segment, compressing it anyway", e);
+        }
+        try {
+            closed.close();
+        } catch (IOException e) {
+            ChatLogsMod.LOGGER.error("Failed to close chat log segment", e);
+        }
+        if (compressSegments) {
+            log.compressClosedSegments();
+        }
+    }
+
+    private void writeEncoded() throws IOException {
+        try {
+            channel.write(encoder.buffer(), encoder.size());
+        } finally {
+            encoder.reset();
+        }
+    }
+
+    private void recordProgress() throws IOException {
+        progress.clear();
+        progress.putLong(lastSeq).putLong(channel.length()).flip();
+        while (progress.hasRemaining()) {
+            progressChannel.write(progress, progress.position());
+        }
+    }
+
+    /**
+     * Read the progress stored in a lock file left by a crash, null if there is none
+     */
+    public static Progress readProgress(File lockFile) {
+        if (lockFile.length() < PROGRESS_SIZE) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(lockFile, "r")) {
+            return new Progress(file.readLong(), file.readLong());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Last message sequence number written to a text log, and the file length right after it
+     */
+    public record Progress(long seq, long length) {
+    }
+}
@@ -0,0 +1,185 @@
+package fr.raconteur.chatlogs.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import net.minecraft.entity.EntityType;
+import net.minecraft.text.ClickEvent;
+import net.minecraft.text.HoverEvent;
+import net.minecraft.text.StringVisitable;
+import net.minecraft.text.Style;
+import net.minecraft.text.Text;
+import net.minecraft.text.TranslatableTextContent;
+
+/**
+ * Finds the sender of a chat message in its component tree instead of its flattened text.
+ * Vanilla, and most servers, style a player name with a ShowEntity hover event holding the
+ * player UUID, a "/tell &lt;name&gt; " suggested command and the name as insertion; the first
+ * component styled so gives the sender.
+ * <p>
+ * The message is walked once, collecting its text on the way, so that getString is not needed.
+ * System messages also name players this way (deaths, joins, bans, kill feeds, shop notices):
+ * <ul>
+ * <li>A message translated with a key of player chat takes the first player named in it.</li>
+ * <li>A message translated with another key, a vanilla system message, is not searched.</li>
+ * <li>A literal message, as plugins and servers send both chat and notices, takes a player
+ * only if its name leads the line, before any other text.</li>
+ * </ul>
+ * Otherwise the sender is left to the sender patterns, uuidOf then gives the UUID of the player
+ * they matched if a hover names them. Owned by the writer thread.
+ */
+public class TextSenderExtractor implements StringVisitable.StyledVisitor<Void> {
+    private static final Set<String> CHAT_KEYS = Set.of(
+        "chat.type.text", "chat.type.emote", "chat.type.announcement",
+        "chat.type.team.text", "chat.type.team.sent", "commands.message.display.incoming");
+    private static final String[] MESSAGE_COMMANDS = {"/msg ", "/tell ", "/w ", "/whisper "};
+    private static final int MAX_NAME_LENGTH = 16;
+
+    private final StringBuilder text = new StringBuilder(256);
+    private final List<String> playerNames = new ArrayList<>(); // Players of ShowEntity hovers, with their UUIDs
+    private final List<String> playerUuids = new ArrayList<>();
+    private boolean searching;
+    private boolean leadingOnly; // Literal root, a sender must come before any other text
+    private String senderName;
+    private String senderUuid;
+
+    /**
+     * Walk the message, returning its text. The sender found on the way is then given by
+     * getSenderName and getSenderUuid.
+     */
+    public String walk(Text message) {
+        text.setLength(0);
+        senderName = null;
+        senderUuid = null;
+        playerNames.clear();
+        playerUuids.clear();
+        if (message.getContent() instanceof TranslatableTextContent translatable) {
+            searching = CHAT_KEYS.contains(translatable.getKey());
+            leadingOnly = false;
+        } else {
+            searching = true;
+            leadingOnly = true;
+        }
+        message.visit(this, Style.EMPTY);
+        return text.toString();
+    }
+
+    /**
+     * Sender of the last message walked, null if its components name none
+     */
+    public String getSenderName() {
+        return senderName;
+    }
+
+    /**
+     * UUID of that sender, null unless it came from a ShowEntity hover event
+     */
+    public String getSenderUuid() {
+        return senderUuid;
+    }
+
+    /**
+     * UUID of a player named by a ShowEntity hover event of the last message walked, null if none names them
+     */
+    public String uuidOf(String name) {
+        int index = name != null ? playerNames.indexOf(name) : -1;
+        return index >= 0 ? playerUuids.get(index) : null;
+    }
+
+    @Override
+    public Optional<Void> accept(Style style, String segment) {
+        String player = null;
+        String uuid = null;
+        if (style.getHoverEvent() instanceof HoverEvent.ShowEntity(HoverEvent.EntityContent entity)
+                && entity.entityType == EntityType.PLAYER) {
+            player = playerName(style, entity, segment);
+            uuid = entity.uuid != null ? entity.uuid.toString() : null;
+            if (player != null && uuid != null && !playerNames.contains(player)) {
+                playerNames.add(player);
+                playerUuids.add(uuid);
+            }
+        }
+
+        if (searching) {
+            if (player != null) {
+                found(player, uuid);
+            } else {
+                findSender(style);
+            }
+            if (leadingOnly && !segment.isBlank()) {
+                searching = false;
+            }
+        }
+        text.append(segment);
+        return Optional.empty(); // Keep walking, the whole text is needed
+    }
+
+    /**
+     * Name of the player of a ShowEntity hover event: the insertion is the profile name,
+     * the hover and displayed names may be decorated by teams
+     */
+    private static String playerName(Style style, HoverEvent.EntityContent entity, String segment) {
+        String name = validName(style.getInsertion());
+        if (name == null) {
+            name = trimmedOrNull(entity.name.map(Text::getString).orElse(segment));
+        }
+        return name;
+    }
+
+    private void findSender(Style style) {
+        if (style.getHoverEvent() instanceof HoverEvent.ShowEntity) {
+            return; // A player hover without a usable name, other events of the component are not about the sender
+        }
+
+        String name = style.getClickEvent() instanceof ClickEvent.SuggestCommand(String command)
+            ? commandTarget(command) : null;
+        if (name == null) {
+            name = validName(style.getInsertion());
+        }
+        if (name != null) {
+            found(name, null);
+        }
+    }
+
+    private void found(String name, String uuid) {
+        senderName = name;
+        senderUuid = uuid;
+        searching = false;
+    }
+
+    /**
+     * Player a suggested private message command is addressed to, or null for other commands
+     */
+    private static String commandTarget(String command) {
+        for (String prefix : MESSAGE_COMMANDS) {
+            if (command.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                int end = command.indexOf(' ', prefix.length());
+                return validName(command.substring(prefix.length(), end < 0 ? command.length() : end));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The name if it is a valid player name as vanilla checks them, null otherwise
+     */
+    private static String validName(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c >= 127) {
+                return null;
+            }
+        }
+        return name;
+    }
+
+    private static String trimmedOrNull(String name) {
+        String trimmed = name.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+}
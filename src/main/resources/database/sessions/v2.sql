@@ -0,0 +1,26 @@
+-- Version 2: Full-text search over message text
+-- External-content FTS5 table: the text is only stored in messages, the FTS table holds the index
+
+CREATE VIRTUAL TABLE messages_fts USING fts5(
+    message_text,
+    content = 'messages',
+    content_rowid = 'id',
+    tokenize = 'unicode61 remove_diacritics 2'
+);
+
+-- Triggers keeping the index in sync with messages
+CREATE TRIGGER messages_fts_insert AFTER INSERT ON messages BEGIN
+    INSERT INTO messages_fts (rowid, message_text) VALUES (new.id, new.message_text);
+END;
+
+CREATE TRIGGER messages_fts_delete AFTER DELETE ON messages BEGIN
+    INSERT INTO messages_fts (messages_fts, rowid, message_text) VALUES ('delete', old.id, old.message_text);
+END;
+
+CREATE TRIGGER messages_fts_update AFTER UPDATE OF message_text ON messages BEGIN
+    INSERT INTO messages_fts (messages_fts, rowid, message_text) VALUES ('delete', old.id, old.message_text);
+    INSERT INTO messages_fts (rowid, message_text) VALUES (new.id, new.message_text);
+END;
+
+-- Index the messages recorded before this version
+INSERT INTO messages_fts (messages_fts) VALUES ('rebuild');
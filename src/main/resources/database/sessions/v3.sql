@@ -0,0 +1,38 @@
+-- Version 3: Compressed storage of message JSON
+-- message_json_packed holds deflate data compressed against a preset dictionary (see MessageJsonCodec),
+-- message_json is only kept for rows that have not been repacked yet
+
+ALTER TABLE messages ADD COLUMN message_json_packed BLOB;
+
+-- Preset dictionaries, referenced by id from the header of each packed value
+CREATE TABLE message_json_dictionaries (
+    id INTEGER PRIMARY KEY AUTOINCREMENT,
+    dictionary BLOB NOT NULL,
+    sample_count INTEGER NOT NULL DEFAULT 0,   -- Number of messages it was trained on, 0 for the built-in one
+    created_at INTEGER NOT NULL
+);
+
+-- Built-in dictionary: common text component keys and values, most frequent last
+INSERT INTO message_json_dictionaries (id, dictionary, sample_count, created_at) VALUES (1, CAST(
+    '{"action":"open_url","url":"https://' ||
+    '"strikethrough":true,"obfuscated":true,"underlined":true,"font":"minecraft:uniform","shadow_color":' ||
+    '"click_event":{"action":"copy_to_clipboard","value":"' ||
+    '"click_event":{"action":"run_command","command":"/' ||
+    '"hover_event":{"action":"show_item","id":"minecraft:' ||
+    '"translate":"multiplayer.player.left","with":[' ||
+    '"translate":"multiplayer.player.joined","with":[' ||
+    '"translate":"chat.type.emote","with":[' ||
+    '"translate":"commands.message.display.incoming","with":[' ||
+    '"color":"black","color":"dark_blue","color":"dark_green","color":"dark_aqua","color":"dark_red",' ||
+    '"color":"dark_purple","color":"blue","color":"light_purple","color":"aqua","color":"#' ||
+    '"color":"white","color":"green","color":"red","color":"yellow","color":"dark_gray","color":"gray","color":"gold",' ||
+    '"italic":false,"bold":false,"bold":true,' ||
+    '"hover_event":{"action":"show_text","value":{"text":"' ||
+    '"hover_event":{"action":"show_text","value":"' ||
+    '"click_event":{"action":"suggest_command","command":"/msg ' ||
+    '"click_event":{"action":"suggest_command","command":"/tell ' ||
+    '"hover_event":{"action":"show_entity","id":"minecraft:player","uuid":[' ||
+    '{"translate":"chat.type.text","with":[{"insertion":"' ||
+    '"},{"text":"' ||
+    '{"text":"","extra":[{"text":"'
+    AS BLOB), 0, CAST(strftime('%s', 'now') AS INTEGER) * 1000);
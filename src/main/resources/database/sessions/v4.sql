@@ -0,0 +1,22 @@
+-- Version 4: Normalized senders
+-- Each sender name is stored once, messages reference it by integer id
+
+CREATE TABLE senders (
+    id INTEGER PRIMARY KEY AUTOINCREMENT,
+    name TEXT NOT NULL UNIQUE,
+    uuid TEXT                             -- Player UUID when it could be detected, NULL otherwise
+);
+
+INSERT INTO senders (name)
+SELECT DISTINCT sender_name FROM messages WHERE sender_name IS NOT NULL;
+
+ALTER TABLE messages ADD COLUMN sender_id INTEGER REFERENCES senders (id);
+
+UPDATE messages
+SET sender_id = (SELECT id FROM senders WHERE senders.name = messages.sender_name)
+WHERE sender_name IS NOT NULL;
+
+-- The text column and its index are replaced by the integer reference
+DROP INDEX idx_messages_sender_name;
+ALTER TABLE messages DROP COLUMN sender_name;
+CREATE INDEX idx_messages_sender_id ON messages (sender_id);
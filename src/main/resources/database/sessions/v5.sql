@@ -0,0 +1,12 @@
+-- Version 5: Indexes matched to the queries SessionDatabase actually runs
+-- Every query is checked against this schema with EXPLAIN QUERY PLAN, see QueryPlanVerifier
+
+-- No query filters on the timestamp alone, time ranges are always within a session or a search
+DROP INDEX idx_messages_timestamp;
+
+-- Text search goes through messages_fts, this index was only maintained on every insert
+DROP INDEX idx_messages_text_search;
+
+-- Seeking into a session by time (openMessageCursorAt); paging by id keeps using
+-- idx_messages_session_id, which is (session_id, rowid) and needs no sort
+CREATE INDEX idx_messages_session_timestamp ON messages (session_id, timestamp);
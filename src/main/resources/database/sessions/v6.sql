@@ -0,0 +1,13 @@
+-- Version 6: Ingest sequence numbers
+-- Each recorded message is numbered in the order it entered the ingest stream, the same
+-- number is tracked by the text log so that crash recovery can replay what it missed
+
+ALTER TABLE messages ADD COLUMN seq INTEGER;
+
+-- Existing messages are numbered in insertion order within their session
+UPDATE messages SET seq = numbered.seq
+FROM (SELECT id, ROW_NUMBER() OVER (PARTITION BY session_id ORDER BY id) AS seq FROM messages) AS numbered
+WHERE messages.id = numbered.id;
+
+-- Last stored sequence number of a session, and replay from a given one
+CREATE INDEX idx_messages_session_seq ON messages (session_id, seq);
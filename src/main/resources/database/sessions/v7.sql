@@ -0,0 +1,6 @@
+-- Version 7: Runs of repeated messages
+-- With repeat collapsing enabled, consecutive identical messages of a session are stored as one row:
+-- timestamp and seq are those of the first message, the run covers seq to seq + repeat_count - 1
+
+ALTER TABLE messages ADD COLUMN repeat_count INTEGER NOT NULL DEFAULT 1;
+ALTER TABLE messages ADD COLUMN last_timestamp INTEGER; -- Last message of the run, NULL for a single message
@@ -0,0 +1,16 @@
+-- Version 8: Sequence numbers order the messages of a session
+-- Messages are read, paged and replayed by (session_id, seq); timestamps are only displayed
+
+-- Number rows stored without a sequence number after the last numbered one of their session
+UPDATE messages SET seq = numbered.seq
+FROM (
+    SELECT id,
+           (SELECT COALESCE(MAX(m2.seq + m2.repeat_count - 1), 0) FROM messages m2 WHERE m2.session_id = m.session_id)
+           + ROW_NUMBER() OVER (PARTITION BY session_id ORDER BY id) AS seq
+    FROM messages m
+    WHERE seq IS NULL
+) AS numbered
+WHERE messages.id = numbered.id;
+
+-- Every lookup by session goes through idx_messages_session_seq now
+DROP INDEX idx_messages_session_id;
@@ -0,0 +1,23 @@
+-- Version 9: Structured fields captured by sender patterns
+-- Patterns may capture channel, rank, target and kind (whisper, party, global...) next to the sender.
+-- Channel, rank and kind are short labels repeated on many rows, each value is stored once in message_labels;
+-- the whisper target is a player, stored in senders like the sender itself
+
+CREATE TABLE message_labels (
+    id INTEGER PRIMARY KEY AUTOINCREMENT,
+    field TEXT NOT NULL,                  -- 'channel', 'rank' or 'kind'
+    value TEXT NOT NULL,
+    UNIQUE (field, value)
+);
+
+ALTER TABLE messages ADD COLUMN channel_id INTEGER REFERENCES message_labels (id);
+ALTER TABLE messages ADD COLUMN rank_id INTEGER REFERENCES message_labels (id);
+ALTER TABLE messages ADD COLUMN kind_id INTEGER REFERENCES message_labels (id);
+ALTER TABLE messages ADD COLUMN target_id INTEGER REFERENCES senders (id);
+
+-- Listing by field over a time range ("party chat last week") is a range scan of one of these, newest first.
+-- Partial indexes: messages without the field, most of them, add nothing to them
+CREATE INDEX idx_messages_channel_timestamp ON messages (channel_id, timestamp) WHERE channel_id IS NOT NULL;
+CREATE INDEX idx_messages_rank_timestamp ON messages (rank_id, timestamp) WHERE rank_id IS NOT NULL;
+CREATE INDEX idx_messages_kind_timestamp ON messages (kind_id, timestamp) WHERE kind_id IS NOT NULL;
+CREATE INDEX idx_messages_target_timestamp ON messages (target_id, timestamp) WHERE target_id IS NOT NULL;